@@ -0,0 +1,81 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package weka.classifiers.immune.affinity;
+
+import weka.core.Instances;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Type: AttributeOrdering
+ * File: AttributeOrdering.java
+ * Date: 17/10/2026
+ * <p>
+ * Description: Orders attributes by their expected contribution to the
+ * squared distance between two random instances, largest first. For a numeric
+ * attribute that is twice its variance, for a nominal attribute the
+ * probability that two values differ. Summing in this order lets a bounded
+ * distance exceed its bound after fewer attributes.
+ *
+ * @author Jason Brownlee
+ */
+public class AttributeOrdering {
+
+  /**
+   * @param aMeasures
+   * @param aInstances
+   * @return the non-class attributes, largest expected contribution first
+   */
+  public static int[] byExpectedContribution(AttributeDistance[] aMeasures, Instances aInstances) {
+    final double[] contribution = new double[aMeasures.length];
+    Integer[] attributes = new Integer[aMeasures.length];
+    int count = 0;
+    for (int i = 0; i < aMeasures.length; i++) {
+      if (aMeasures[i].isClass()) {
+	continue;
+      }
+      attributes[count++] = i;
+      if (aMeasures[i].isNumeric()) {
+	double variance = aInstances.variance(i);
+	contribution[i] = Double.isNaN(variance) ? 0.0 : 2.0 * variance;
+      }
+      else if (aMeasures[i].isNominal()) {
+	int[] counts = aInstances.attributeStats(i).nominalCounts;
+	double total = 0.0;
+	double same = 0.0;
+	for (int j = 0; j < counts.length; j++) {
+	  total += counts[j];
+	  same += (double) counts[j] * counts[j];
+	}
+	contribution[i] = (total > 0) ? (1.0 - same / (total * total)) : 0.0;
+      }
+    }
+
+    // stable, so equal contributions keep the natural order
+    Arrays.sort(attributes, 0, count, new Comparator<Integer>() {
+      public int compare(Integer o1, Integer o2) {
+	return Double.compare(contribution[o2], contribution[o1]);
+      }
+    });
+
+    int[] order = new int[count];
+    for (int i = 0; i < count; i++) {
+      order[i] = attributes[i];
+    }
+    return order;
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package weka.classifiers.immune.affinity;
+
+/**
+ * Type: NeighbourHeap
+ * File: NeighbourHeap.java
+ * Date: 17/10/2026
+ * <p>
+ * Description: Bounded max-heap that retains the k entries with the smallest
+ * distance offered to it, in O(n log k) for n offers. Equal distances are
+ * resolved in favour of the lower index, which gives the same selection as a
+ * stable ascending sort of all n values.
+ *
+ * @author Jason Brownlee
+ */
+public class NeighbourHeap {
+
+  protected final int[] indices;
+
+  protected final double[] distances;
+
+  protected int size;
+
+
+  public NeighbourHeap(int aCapacity) {
+    indices = new int[aCapacity];
+    distances = new double[aCapacity];
+  }
+
+
+  public void clear() {
+    size = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int capacity() {
+    return indices.length;
+  }
+
+  public boolean isFull() {
+    return size == indices.length;
+  }
+
+  /**
+   * The distance an entry must beat to be retained
+   *
+   * @return the worst retained distance, or infinity if the heap is not full
+   */
+  public double worstDistance() {
+    if (!isFull() || size == 0) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return distances[0];
+  }
+
+  /**
+   * @param aIndex
+   * @param aDistance
+   * @return true if the entry was retained
+   */
+  public boolean offer(int aIndex, double aDistance) {
+    if (size < indices.length) {
+      int i = size++;
+      indices[i] = aIndex;
+      distances[i] = aDistance;
+      siftUp(i);
+      return true;
+    }
+    // replace the worst entry if the new one is better
+    if (size > 0 && isWorse(distances[0], indices[0], aDistance, aIndex)) {
+      indices[0] = aIndex;
+      distances[0] = aDistance;
+      siftDown(0, size);
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Orders the retained entries by ascending distance. The heap must be
+   * cleared before it is offered new entries.
+   *
+   * @return the indices, only the first size() entries are valid
+   */
+  public int[] sortedIndices() {
+    for (int end = size - 1; end > 0; end--) {
+      swap(0, end);
+      siftDown(0, end);
+    }
+    return indices;
+  }
+
+  /**
+   * @return the distances, ordered to match the last call to sortedIndices()
+   */
+  public double[] getDistances() {
+    return distances;
+  }
+
+  public int getIndex(int i) {
+    return indices[i];
+  }
+
+  public double getDistance(int i) {
+    return distances[i];
+  }
+
+
+  protected static boolean isWorse(double d1, int i1, double d2, int i2) {
+    return (d1 > d2) || (d1 == d2 && i1 > i2);
+  }
+
+  protected void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!isWorse(distances[i], indices[i], distances[parent], indices[parent])) {
+	break;
+      }
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  protected void siftDown(int i, int aEnd) {
+    while (true) {
+      int worst = i;
+      int left = 2 * i + 1;
+      int right = left + 1;
+      if (left < aEnd && isWorse(distances[left], indices[left], distances[worst], indices[worst])) {
+	worst = left;
+      }
+      if (right < aEnd && isWorse(distances[right], indices[right], distances[worst], indices[worst])) {
+	worst = right;
+      }
+      if (worst == i) {
+	break;
+      }
+      swap(i, worst);
+      i = worst;
+    }
+  }
+
+  protected void swap(int i, int j) {
+    int index = indices[i];
+    indices[i] = indices[j];
+    indices[j] = index;
+    double distance = distances[i];
+    distances[i] = distances[j];
+    distances[j] = distance;
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package weka.classifiers.immune.affinity;
+
+import weka.core.Instances;
+
+import java.io.Serializable;
+
+/**
+ * Type: NumericDistanceKernel
+ * File: NumericDistanceKernel.java
+ * Date: 17/10/2026
+ * <p>
+ * Description: Sum of squared differences for data where every attribute other
+ * than the class is numeric. The attributes are summed in the same order as
+ * the per attribute measures, skipping the class, so the result is identical
+ * to the generic path. There is no missing value check; a missing value on
+ * either side yields NaN, which the caller must treat as a signal to use the
+ * generic path for that comparison.
+ *
+ * @author Jason Brownlee
+ */
+public class NumericDistanceKernel implements Serializable {
+
+  protected final int numAttributes;
+
+  protected final int classIndex;
+
+
+  protected NumericDistanceKernel(int aNumAttributes, int aClassIndex) {
+    numAttributes = aNumAttributes;
+    classIndex = aClassIndex;
+  }
+
+
+  /**
+   * Selects the kernel for data that is all numeric apart from the class and
+   * has no missing values
+   *
+   * @param aMeasures  the per attribute measures of the distance function
+   * @param aInstances the data the distance function is prepared from
+   * @return the kernel, or null if the generic path is to be used
+   */
+  public static NumericDistanceKernel create(AttributeDistance[] aMeasures, Instances aInstances) {
+    for (int i = 0; i < aMeasures.length; i++) {
+      if (!aMeasures[i].isNumeric() && !aMeasures[i].isClass()) {
+	return null;
+      }
+    }
+
+    int classIndex = aInstances.classIndex();
+    for (int i = 0; i < aInstances.numInstances(); i++) {
+      for (int j = 0; j < aMeasures.length; j++) {
+	if (j != classIndex && aInstances.instance(i).isMissing(j)) {
+	  return null;
+	}
+      }
+    }
+
+    return new NumericDistanceKernel(aMeasures.length, classIndex);
+  }
+
+  /**
+   * @param i1
+   * @param aMatrix
+   * @param aOffset first element of the second vector in the matrix
+   * @return the sum of squared differences, or NaN if a value is missing
+   */
+  public double sumSquares(double[] i1, double[] aMatrix, int aOffset) {
+    // the class splits the attributes into at most two contiguous runs
+    int end = (classIndex < 0) ? numAttributes : classIndex;
+    double sum = 0.0;
+    for (int i = 0; i < end; i++) {
+      double diff = i1[i] - aMatrix[aOffset + i];
+      sum += diff * diff;
+    }
+    for (int i = end + 1; i < numAttributes; i++) {
+      double diff = i1[i] - aMatrix[aOffset + i];
+      sum += diff * diff;
+    }
+    return sum;
+  }
+
+  /**
+   * Sum of squared differences that stops once the partial sum exceeds the
+   * bound
+   *
+   * @param i1
+   * @param aMatrix
+   * @param aOffset first element of the second vector in the matrix
+   * @param aOrder  attributes in summation order excluding the class, or null
+   *                for the natural order
+   * @param aBound
+   * @return the sum, a partial sum greater than the bound, or NaN if a value
+   * is missing
+   */
+  public double sumSquares(double[] i1, double[] aMatrix, int aOffset, int[] aOrder, double aBound) {
+    double sum = 0.0;
+    if (aOrder != null) {
+      for (int k = 0; k < aOrder.length && sum <= aBound; k++) {
+	int i = aOrder[k];
+	double diff = i1[i] - aMatrix[aOffset + i];
+	sum += diff * diff;
+      }
+      return sum;
+    }
+
+    int end = (classIndex < 0) ? numAttributes : classIndex;
+    for (int i = 0; i < end && sum <= aBound; i++) {
+      double diff = i1[i] - aMatrix[aOffset + i];
+      sum += diff * diff;
+    }
+    for (int i = end + 1; i < numAttributes && sum <= aBound; i++) {
+      double diff = i1[i] - aMatrix[aOffset + i];
+      sum += diff * diff;
+    }
+    return sum;
+  }
+
+  /**
+   * As above for a matrix held in single precision. The squares are summed in
+   * double precision in blocks of four attributes, which shortens the chain of
+   * dependent additions, and the bound is checked after each block. The sum
+   * may therefore differ in the last bits from the other methods.
+   *
+   * @param i1
+   * @param aMatrix
+   * @param aOffset first element of the second vector in the matrix
+   * @param aOrder  attributes in summation order excluding the class, or null
+   *                for the natural order
+   * @param aBound
+   * @return the sum, a partial sum greater than the bound, or NaN if a value
+   * is missing
+   */
+  public double sumSquares(double[] i1, float[] aMatrix, int aOffset, int[] aOrder, double aBound) {
+    if (aOrder != null) {
+      double sum = 0.0;
+      int k = 0;
+      for (; k + 4 <= aOrder.length && sum <= aBound; k += 4) {
+	double d0 = i1[aOrder[k]] - aMatrix[aOffset + aOrder[k]];
+	double d1 = i1[aOrder[k + 1]] - aMatrix[aOffset + aOrder[k + 1]];
+	double d2 = i1[aOrder[k + 2]] - aMatrix[aOffset + aOrder[k + 2]];
+	double d3 = i1[aOrder[k + 3]] - aMatrix[aOffset + aOrder[k + 3]];
+	sum += (d0 * d0 + d1 * d1) + (d2 * d2 + d3 * d3);
+      }
+      for (; k < aOrder.length && sum <= aBound; k++) {
+	double diff = i1[aOrder[k]] - aMatrix[aOffset + aOrder[k]];
+	sum += diff * diff;
+      }
+      return sum;
+    }
+
+    int end = (classIndex < 0) ? numAttributes : classIndex;
+    double sum = sumSquares(i1, aMatrix, aOffset, 0, end, 0.0, aBound);
+    return sumSquares(i1, aMatrix, aOffset, end + 1, numAttributes, sum, aBound);
+  }
+
+  protected static double sumSquares(double[] i1, float[] aMatrix, int aOffset, int aFrom, int aTo, double aSum, double aBound) {
+    double sum = aSum;
+    int i = aFrom;
+    for (; i + 4 <= aTo && sum <= aBound; i += 4) {
+      double d0 = i1[i] - aMatrix[aOffset + i];
+      double d1 = i1[i + 1] - aMatrix[aOffset + i + 1];
+      double d2 = i1[i + 2] - aMatrix[aOffset + i + 2];
+      double d3 = i1[i + 3] - aMatrix[aOffset + i + 3];
+      sum += (d0 * d0 + d1 * d1) + (d2 * d2 + d3 * d3);
+    }
+    for (; i < aTo && sum <= aBound; i++) {
+      double diff = i1[i] - aMatrix[aOffset + i];
+      sum += diff * diff;
+    }
+    return sum;
+  }
+}
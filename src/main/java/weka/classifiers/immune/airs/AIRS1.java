@@ -22,12 +22,15 @@ package weka.classifiers.immune.airs;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.immune.airs.algorithm.AIRS1Trainer;
 import weka.classifiers.immune.airs.algorithm.AISModelClassifier;
+import weka.classifiers.immune.airs.algorithm.Utils;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Option;
 import weka.core.OptionHelper;
+import weka.core.SelectedTag;
+import weka.core.Tag;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -35,6 +38,7 @@ import java.util.Enumeration;
 import java.util.List;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Type: AIRS1
@@ -71,6 +75,18 @@ public class AIRS1 extends AbstractClassifier
 
   protected int knn;
 
+  protected boolean memoryCellIndex;
+
+  protected boolean varianceOrdering;
+
+  protected boolean singlePrecisionModel;
+
+  protected int thresholdMethod;
+
+  protected double thresholdError;
+
+  protected double thresholdConfidence;
+
   protected String trainingSummary;
 
   protected String classifierSummary;
@@ -88,7 +104,10 @@ public class AIRS1 extends AbstractClassifier
       "A", // num affinity threshold instances
       "B", // arb pool size
       "E", // mem pool size
-      "K"  // kNN
+      "K", // kNN
+      "P", // affinity threshold method
+      "L", // affinity threshold error
+      "O"  // affinity threshold confidence
     };
 
 
@@ -104,7 +123,23 @@ public class AIRS1 extends AbstractClassifier
       PARAM_AT_INSTANCES,
       PARAM_ARB_INSTANCES,
       PARAM_MEM_INSTANCES,
-      PARAM_KNN
+      PARAM_KNN,
+      PARAM_THRESHOLD_METHOD,
+      PARAM_THRESHOLD_ERROR,
+      PARAM_THRESHOLD_CONFIDENCE
+    };
+
+  private final static String INDEX_FLAG = "I";
+
+  private final static String VARIANCE_ORDER_FLAG = "G";
+
+  private final static String SINGLE_PRECISION_FLAG = "Z";
+
+  public final static Tag[] TAGS_THRESHOLD_METHOD =
+    {
+      new Tag(Utils.THRESHOLD_EXACT, "Exact"),
+      new Tag(Utils.THRESHOLD_EXACT_PARALLEL, "Exact (parallel)"),
+      new Tag(Utils.THRESHOLD_SAMPLED, "Sampled")
     };
 
 
@@ -127,6 +162,9 @@ public class AIRS1 extends AbstractClassifier
     arbInitialPoolSize = 1;
     memInitialPoolSize = 1;
     knn = 3;
+    thresholdMethod = Utils.THRESHOLD_EXACT;
+    thresholdError = 0.01;
+    thresholdConfidence = 0.95;
   }
 
   /**
@@ -182,8 +220,12 @@ public class AIRS1 extends AbstractClassifier
       arbInitialPoolSize,
       memInitialPoolSize,
       knn);
+    trainer.setMemoryCellIndex(memoryCellIndex);
+    trainer.setVarianceOrdering(varianceOrdering);
+    trainer.setAffinityThresholdEstimation(thresholdMethod, thresholdError, thresholdConfidence);
     // prepare classifier
     classifier = trainer.train(trainingInstances);
+    classifier.getModel().setSinglePrecision(singlePrecisionModel);
 
     // get summaries
     trainingSummary = trainer.getTrainingSummary();
@@ -201,6 +243,8 @@ public class AIRS1 extends AbstractClassifier
     else if (memInitialPoolSize > numInstances) {
       memInitialPoolSize = numInstances;
     }
+
+    Utils.validateAffinityThresholdEstimation(thresholdMethod, thresholdError, thresholdConfidence);
   }
 
 
@@ -215,6 +259,55 @@ public class AIRS1 extends AbstractClassifier
     return classifier.classifyInstance(instance);
   }
 
+  /**
+   * Classifies a batch of instances, reading the memory cells in blocks that
+   * are reused by many instances. The batch is classified on the
+   * calling thread.
+   *
+   * @param instances
+   * @return the predicted class index of each instance
+   * @throws Exception
+   */
+  public double[] classifyInstances(Instances instances)
+    throws Exception {
+    return classifyInstances(instances, null);
+  }
+
+  /**
+   * @param instances
+   * @param executor runs tiles of the batch in parallel, null to classify on
+   *                 the calling thread
+   * @return the predicted class index of each instance
+   * @throws Exception
+   */
+  public double[] classifyInstances(Instances instances, ExecutorService executor)
+    throws Exception {
+    if (classifier == null) {
+      throw new Exception("Algorithm has not been prepared.");
+    }
+
+    int[] predictions = classifier.classifyInstances(instances, executor);
+    double[] result = new double[predictions.length];
+    for (int i = 0; i < predictions.length; i++) {
+      result[i] = predictions[i];
+    }
+    return result;
+  }
+
+  public boolean implementsMoreEfficientBatchPrediction() {
+    return true;
+  }
+
+  public double[][] distributionsForInstances(Instances instances)
+    throws Exception {
+    double[] predictions = classifyInstances(instances);
+    double[][] distributions = new double[predictions.length][instances.numClasses()];
+    for (int i = 0; i < predictions.length; i++) {
+      distributions[i][(int) predictions[i]] = 1.0;
+    }
+    return distributions;
+  }
+
 
   public String toString() {
     StringBuilder buffer = new StringBuilder();
@@ -265,6 +358,10 @@ public class AIRS1 extends AbstractClassifier
       list.add(o);
     }
 
+    list.add(new Option(PARAM_INDEX, INDEX_FLAG, 0, "-" + INDEX_FLAG));
+    list.add(new Option(PARAM_VARIANCE_ORDER, VARIANCE_ORDER_FLAG, 0, "-" + VARIANCE_ORDER_FLAG));
+    list.add(new Option(PARAM_SINGLE_PRECISION, SINGLE_PRECISION_FLAG, 0, "-" + SINGLE_PRECISION_FLAG));
+
     return list.elements();
   }
 
@@ -284,6 +381,13 @@ public class AIRS1 extends AbstractClassifier
     setArbInitialPoolSize(OptionHelper.getInteger(PARAMETERS[8], options, 1));
     setMemInitialPoolSize(OptionHelper.getInteger(PARAMETERS[9], options, 1));
     setKnn(OptionHelper.getInteger(PARAMETERS[10], options, 3));
+    thresholdMethod = OptionHelper.getInteger(PARAMETERS[11], options, Utils.THRESHOLD_EXACT);
+    setThresholdError(OptionHelper.getDouble(PARAMETERS[12], options, 0.01));
+    setThresholdConfidence(OptionHelper.getDouble(PARAMETERS[13], options, 0.95));
+    // flag
+    setMemoryCellIndex(weka.core.Utils.getFlag(INDEX_FLAG, options));
+    setVarianceOrdering(weka.core.Utils.getFlag(VARIANCE_ORDER_FLAG, options));
+    setSinglePrecisionModel(weka.core.Utils.getFlag(SINGLE_PRECISION_FLAG, options));
     // parental option setting
     super.setOptions(options);
   }
@@ -317,6 +421,22 @@ public class AIRS1 extends AbstractClassifier
     list.add(Integer.toString(memInitialPoolSize));
     list.add("-" + PARAMETERS[10]);
     list.add(Integer.toString(knn));
+    list.add("-" + PARAMETERS[11]);
+    list.add(Integer.toString(thresholdMethod));
+    list.add("-" + PARAMETERS[12]);
+    list.add(Double.toString(thresholdError));
+    list.add("-" + PARAMETERS[13]);
+    list.add(Double.toString(thresholdConfidence));
+    // flag
+    if (memoryCellIndex) {
+      list.add("-" + INDEX_FLAG);
+    }
+    if (varianceOrdering) {
+      list.add("-" + VARIANCE_ORDER_FLAG);
+    }
+    if (singlePrecisionModel) {
+      list.add("-" + SINGLE_PRECISION_FLAG);
+    }
 
     return list.toArray(new String[0]);
   }
@@ -365,6 +485,30 @@ public class AIRS1 extends AbstractClassifier
     return DESCRIPTIONS[9];
   }
 
+  public String thresholdMethodTipText() {
+    return DESCRIPTIONS[11];
+  }
+
+  public String thresholdErrorTipText() {
+    return DESCRIPTIONS[12];
+  }
+
+  public String thresholdConfidenceTipText() {
+    return DESCRIPTIONS[13];
+  }
+
+  public String memoryCellIndexTipText() {
+    return PARAM_INDEX;
+  }
+
+  public String varianceOrderingTipText() {
+    return PARAM_VARIANCE_ORDER;
+  }
+
+  public String singlePrecisionModelTipText() {
+    return PARAM_SINGLE_PRECISION;
+  }
+
   public String knnTipText() {
     return DESCRIPTIONS[10];
   }
@@ -418,6 +562,56 @@ public class AIRS1 extends AbstractClassifier
     this.knn = knn;
   }
 
+  public SelectedTag getThresholdMethod() {
+    return new SelectedTag(thresholdMethod, TAGS_THRESHOLD_METHOD);
+  }
+
+  public void setThresholdMethod(SelectedTag l) {
+    if (l.getTags() == TAGS_THRESHOLD_METHOD) {
+      thresholdMethod = l.getSelectedTag().getID();
+    }
+  }
+
+  public double getThresholdError() {
+    return thresholdError;
+  }
+
+  public void setThresholdError(double thresholdError) {
+    this.thresholdError = thresholdError;
+  }
+
+  public double getThresholdConfidence() {
+    return thresholdConfidence;
+  }
+
+  public void setThresholdConfidence(double thresholdConfidence) {
+    this.thresholdConfidence = thresholdConfidence;
+  }
+
+  public boolean getMemoryCellIndex() {
+    return memoryCellIndex;
+  }
+
+  public void setMemoryCellIndex(boolean memoryCellIndex) {
+    this.memoryCellIndex = memoryCellIndex;
+  }
+
+  public boolean getVarianceOrdering() {
+    return varianceOrdering;
+  }
+
+  public void setVarianceOrdering(boolean varianceOrdering) {
+    this.varianceOrdering = varianceOrdering;
+  }
+
+  public boolean getSinglePrecisionModel() {
+    return singlePrecisionModel;
+  }
+
+  public void setSinglePrecisionModel(boolean singlePrecisionModel) {
+    this.singlePrecisionModel = singlePrecisionModel;
+  }
+
   public int getMemInitialPoolSize() {
     return memInitialPoolSize;
   }
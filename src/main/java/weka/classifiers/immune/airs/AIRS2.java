@@ -20,15 +20,23 @@
 package weka.classifiers.immune.airs;
 
 import weka.classifiers.AbstractClassifier;
+import weka.classifiers.UpdateableBatchProcessor;
+import weka.classifiers.UpdateableClassifier;
 import weka.classifiers.immune.airs.algorithm.AIRS2Trainer;
 import weka.classifiers.immune.airs.algorithm.AISModelClassifier;
+import weka.classifiers.immune.airs.algorithm.Utils;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Option;
 import weka.core.OptionHelper;
+import weka.core.SelectedTag;
+import weka.core.Tag;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
@@ -36,6 +44,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Type: AIRS1
@@ -47,7 +56,7 @@ import java.util.Vector;
  * @author Jason Brownlee
  */
 public class AIRS2 extends AbstractClassifier
-  implements AIRSParameterDocumentation {
+  implements AIRSParameterDocumentation, UpdateableClassifier, UpdateableBatchProcessor {
 
   // paramters
   protected long seed;
@@ -68,6 +77,20 @@ public class AIRS2 extends AbstractClassifier
 
   protected int knn;
 
+  protected boolean memoryCellIndex;
+
+  protected boolean varianceOrdering;
+
+  protected boolean singlePrecisionModel;
+
+  protected boolean updateableModel;
+
+  protected int thresholdMethod;
+
+  protected double thresholdError;
+
+  protected double thresholdConfidence;
+
 
   protected String trainingSummary;
 
@@ -84,7 +107,10 @@ public class AIRS2 extends AbstractClassifier
       "V", // stimulation value
       "A", // num affinity threshold instances
       "E", // mem pool size
-      "K"  // kNN
+      "K", // kNN
+      "P", // affinity threshold method
+      "L", // affinity threshold error
+      "O"  // affinity threshold confidence
     };
 
 
@@ -98,7 +124,25 @@ public class AIRS2 extends AbstractClassifier
       PARAM_STIMULATION,
       PARAM_AT_INSTANCES,
       PARAM_MEM_INSTANCES,
-      PARAM_KNN
+      PARAM_KNN,
+      PARAM_THRESHOLD_METHOD,
+      PARAM_THRESHOLD_ERROR,
+      PARAM_THRESHOLD_CONFIDENCE
+    };
+
+  private final static String INDEX_FLAG = "I";
+
+  private final static String VARIANCE_ORDER_FLAG = "G";
+
+  private final static String SINGLE_PRECISION_FLAG = "Z";
+
+  private final static String UPDATEABLE_FLAG = "U";
+
+  public final static Tag[] TAGS_THRESHOLD_METHOD =
+    {
+      new Tag(Utils.THRESHOLD_EXACT, "Exact"),
+      new Tag(Utils.THRESHOLD_EXACT_PARALLEL, "Exact (parallel)"),
+      new Tag(Utils.THRESHOLD_SAMPLED, "Sampled")
     };
 
 
@@ -107,6 +151,18 @@ public class AIRS2 extends AbstractClassifier
    */
   protected AISModelClassifier classifier;
 
+  /**
+   * Training state, retained so the model can be updated. Only written with
+   * the model when the updateable model option is set.
+   */
+  protected transient AIRS2Trainer trainer;
+
+  /**
+   * Instances given to updateClassifier after building on an empty dataset,
+   * the model is built from them by batchFinished() or when first used
+   */
+  protected volatile Instances pendingInstances;
+
 
   public AIRS2() {
     // set default values
@@ -119,6 +175,9 @@ public class AIRS2 extends AbstractClassifier
     numInstancesAffinityThreshold = -1;
     memInitialPoolSize = 1;
     knn = 3;
+    thresholdMethod = Utils.THRESHOLD_EXACT;
+    thresholdError = 0.01;
+    thresholdConfidence = 0.95;
   }
 
   /**
@@ -142,7 +201,8 @@ public class AIRS2 extends AbstractClassifier
     result.enable(Capability.NOMINAL_CLASS);
     result.enable(Capability.MISSING_CLASS_VALUES);
 
-    result.setMinimumNumberInstances(1);
+    // may be trained incrementally from an empty dataset
+    result.setMinimumNumberInstances(0);
 
     return result;
   }
@@ -157,13 +217,30 @@ public class AIRS2 extends AbstractClassifier
 
     getCapabilities().testWithFail(trainingInstances);
 
+    classifier = null;
+    trainer = null;
+    trainingSummary = null;
+    classifierSummary = null;
+    pendingInstances = null;
+    if (trainingInstances.numInstances() == 0) {
+      // trained incrementally (as by the Weka command line), the affinity
+      // threshold and initial pool need instances so the model is built by
+      // batchFinished() once the updates are complete
+      pendingInstances = trainingInstances;
+      return;
+    }
+
+    build(trainingInstances);
+  }
+
+  protected void build(Instances trainingInstances) throws Exception {
     // validate paramters
     validateParameters(trainingInstances);
 
     // construct trainer
     Random rand = new Random(seed);
 
-    AIRS2Trainer trainer = new AIRS2Trainer(
+    trainer = new AIRS2Trainer(
       affinityThresholdScalar,
       clonalRate,
       hypermutationRate,
@@ -173,9 +250,13 @@ public class AIRS2 extends AbstractClassifier
       rand,
       memInitialPoolSize,
       knn);
+    trainer.setMemoryCellIndex(memoryCellIndex);
+    trainer.setVarianceOrdering(varianceOrdering);
+    trainer.setAffinityThresholdEstimation(thresholdMethod, thresholdError, thresholdConfidence);
 
     // prepare classifier
     classifier = trainer.train(trainingInstances);
+    classifier.getModel().setSinglePrecision(singlePrecisionModel);
 
     // get summaries
     trainingSummary = trainer.getTrainingSummary();
@@ -183,6 +264,48 @@ public class AIRS2 extends AbstractClassifier
   }
 
 
+  /**
+   * Continues training on a single instance, without retraining on the
+   * instances seen before
+   *
+   * @param instance
+   * @throws Exception
+   */
+  public void updateClassifier(Instance instance) throws Exception {
+    if (instance.classIsMissing()) {
+      return;
+    }
+    if (instance.hasMissingValue()) {
+      throw new Exception("AIRS2 cannot handle missing values.");
+    }
+    synchronized (this) {
+      if (pendingInstances != null) {
+	pendingInstances.add(instance);
+	return;
+      }
+    }
+    if (trainer == null) {
+      if (classifier != null) {
+	throw new Exception("The model was saved without its training state, train with -" + UPDATEABLE_FLAG + " to update saved models.");
+      }
+      throw new Exception("Algorithm has not been prepared.");
+    }
+
+    classifier = trainer.update(instance);
+  }
+
+  /**
+   * Builds the model from the instances given to updateClassifier after
+   * building on an empty dataset. Called by the Weka evaluation once the
+   * incremental training is complete.
+   *
+   * @throws Exception
+   */
+  public void batchFinished() throws Exception {
+    buildPending();
+  }
+
+
   protected void validateParameters(Instances trainingInstances)
     throws Exception {
     int numInstances = trainingInstances.numInstances();
@@ -190,11 +313,36 @@ public class AIRS2 extends AbstractClassifier
     if (memInitialPoolSize > numInstances) {
       memInitialPoolSize = numInstances;
     }
+
+    Utils.validateAffinityThresholdEstimation(thresholdMethod, thresholdError, thresholdConfidence);
+  }
+
+
+  /**
+   * Builds the model from the pending instances, if any. The first threads
+   * to classify wait for a single build, later calls only read the volatile
+   * field. The pending instances are kept if the build fails.
+   *
+   * @throws Exception
+   */
+  protected void buildPending() throws Exception {
+    if (pendingInstances == null) {
+      return;
+    }
+    synchronized (this) {
+      Instances instances = pendingInstances;
+      if (instances != null && instances.numInstances() > 0) {
+	build(instances);
+	// publishes the model to threads that read pendingInstances
+	pendingInstances = null;
+      }
+    }
   }
 
 
   public double classifyInstance(Instance instance)
     throws Exception {
+    buildPending();
     if (classifier == null) {
       throw new Exception("Algorithm has not been prepared.");
     }
@@ -204,12 +352,66 @@ public class AIRS2 extends AbstractClassifier
     return classifier.classifyInstance(instance);
   }
 
+  /**
+   * Classifies a batch of instances, reading the memory cells in blocks that
+   * are reused by many instances. The batch is classified on the
+   * calling thread.
+   *
+   * @param instances
+   * @return the predicted class index of each instance
+   * @throws Exception
+   */
+  public double[] classifyInstances(Instances instances)
+    throws Exception {
+    return classifyInstances(instances, null);
+  }
+
+  /**
+   * @param instances
+   * @param executor runs tiles of the batch in parallel, null to classify on
+   *                 the calling thread
+   * @return the predicted class index of each instance
+   * @throws Exception
+   */
+  public double[] classifyInstances(Instances instances, ExecutorService executor)
+    throws Exception {
+    buildPending();
+    if (classifier == null) {
+      throw new Exception("Algorithm has not been prepared.");
+    }
+
+    int[] predictions = classifier.classifyInstances(instances, executor);
+    double[] result = new double[predictions.length];
+    for (int i = 0; i < predictions.length; i++) {
+      result[i] = predictions[i];
+    }
+    return result;
+  }
+
+  public boolean implementsMoreEfficientBatchPrediction() {
+    return true;
+  }
+
+  public double[][] distributionsForInstances(Instances instances)
+    throws Exception {
+    double[] predictions = classifyInstances(instances);
+    double[][] distributions = new double[predictions.length][instances.numClasses()];
+    for (int i = 0; i < predictions.length; i++) {
+      distributions[i][(int) predictions[i]] = 1.0;
+    }
+    return distributions;
+  }
+
 
   public String toString() {
     StringBuilder buffer = new StringBuilder();
     buffer.append("AIRS2 - Artificial Immune Recognition System v2.0\n");
     buffer.append("\n");
 
+    if (pendingInstances != null) {
+      buffer.append("Model not built yet, " + pendingInstances.numInstances() + " instances pending.\n");
+    }
+
     if (trainingSummary != null) {
       buffer.append(trainingSummary);
       buffer.append("\n");
@@ -254,6 +456,11 @@ public class AIRS2 extends AbstractClassifier
       list.add(o);
     }
 
+    list.add(new Option(PARAM_INDEX, INDEX_FLAG, 0, "-" + INDEX_FLAG));
+    list.add(new Option(PARAM_VARIANCE_ORDER, VARIANCE_ORDER_FLAG, 0, "-" + VARIANCE_ORDER_FLAG));
+    list.add(new Option(PARAM_SINGLE_PRECISION, SINGLE_PRECISION_FLAG, 0, "-" + SINGLE_PRECISION_FLAG));
+    list.add(new Option(PARAM_UPDATEABLE_MODEL, UPDATEABLE_FLAG, 0, "-" + UPDATEABLE_FLAG));
+
     return list.elements();
   }
 
@@ -271,6 +478,14 @@ public class AIRS2 extends AbstractClassifier
     setNumInstancesAffinityThreshold(OptionHelper.getInteger(PARAMETERS[6], options, -1));
     setMemInitialPoolSize(OptionHelper.getInteger(PARAMETERS[7], options, 1));
     setKnn(OptionHelper.getInteger(PARAMETERS[8], options, 3));
+    thresholdMethod = OptionHelper.getInteger(PARAMETERS[9], options, Utils.THRESHOLD_EXACT);
+    setThresholdError(OptionHelper.getDouble(PARAMETERS[10], options, 0.01));
+    setThresholdConfidence(OptionHelper.getDouble(PARAMETERS[11], options, 0.95));
+    // flag
+    setMemoryCellIndex(weka.core.Utils.getFlag(INDEX_FLAG, options));
+    setVarianceOrdering(weka.core.Utils.getFlag(VARIANCE_ORDER_FLAG, options));
+    setSinglePrecisionModel(weka.core.Utils.getFlag(SINGLE_PRECISION_FLAG, options));
+    setUpdateableModel(weka.core.Utils.getFlag(UPDATEABLE_FLAG, options));
     // parental option setting
     super.setOptions(options);
   }
@@ -300,6 +515,25 @@ public class AIRS2 extends AbstractClassifier
     list.add(Integer.toString(memInitialPoolSize));
     list.add("-" + PARAMETERS[8]);
     list.add(Integer.toString(knn));
+    list.add("-" + PARAMETERS[9]);
+    list.add(Integer.toString(thresholdMethod));
+    list.add("-" + PARAMETERS[10]);
+    list.add(Double.toString(thresholdError));
+    list.add("-" + PARAMETERS[11]);
+    list.add(Double.toString(thresholdConfidence));
+    // flag
+    if (memoryCellIndex) {
+      list.add("-" + INDEX_FLAG);
+    }
+    if (varianceOrdering) {
+      list.add("-" + VARIANCE_ORDER_FLAG);
+    }
+    if (singlePrecisionModel) {
+      list.add("-" + SINGLE_PRECISION_FLAG);
+    }
+    if (updateableModel) {
+      list.add("-" + UPDATEABLE_FLAG);
+    }
 
     return list.toArray(new String[0]);
   }
@@ -340,6 +574,34 @@ public class AIRS2 extends AbstractClassifier
     return DESCRIPTIONS[7];
   }
 
+  public String thresholdMethodTipText() {
+    return DESCRIPTIONS[9];
+  }
+
+  public String thresholdErrorTipText() {
+    return DESCRIPTIONS[10];
+  }
+
+  public String thresholdConfidenceTipText() {
+    return DESCRIPTIONS[11];
+  }
+
+  public String memoryCellIndexTipText() {
+    return PARAM_INDEX;
+  }
+
+  public String varianceOrderingTipText() {
+    return PARAM_VARIANCE_ORDER;
+  }
+
+  public String singlePrecisionModelTipText() {
+    return PARAM_SINGLE_PRECISION;
+  }
+
+  public String updateableModelTipText() {
+    return PARAM_UPDATEABLE_MODEL;
+  }
+
   public String knnTipText() {
     return DESCRIPTIONS[8];
   }
@@ -385,6 +647,64 @@ public class AIRS2 extends AbstractClassifier
     this.knn = knn;
   }
 
+  public SelectedTag getThresholdMethod() {
+    return new SelectedTag(thresholdMethod, TAGS_THRESHOLD_METHOD);
+  }
+
+  public void setThresholdMethod(SelectedTag l) {
+    if (l.getTags() == TAGS_THRESHOLD_METHOD) {
+      thresholdMethod = l.getSelectedTag().getID();
+    }
+  }
+
+  public double getThresholdError() {
+    return thresholdError;
+  }
+
+  public void setThresholdError(double thresholdError) {
+    this.thresholdError = thresholdError;
+  }
+
+  public double getThresholdConfidence() {
+    return thresholdConfidence;
+  }
+
+  public void setThresholdConfidence(double thresholdConfidence) {
+    this.thresholdConfidence = thresholdConfidence;
+  }
+
+  public boolean getMemoryCellIndex() {
+    return memoryCellIndex;
+  }
+
+  public void setMemoryCellIndex(boolean memoryCellIndex) {
+    this.memoryCellIndex = memoryCellIndex;
+  }
+
+  public boolean getVarianceOrdering() {
+    return varianceOrdering;
+  }
+
+  public void setVarianceOrdering(boolean varianceOrdering) {
+    this.varianceOrdering = varianceOrdering;
+  }
+
+  public boolean getSinglePrecisionModel() {
+    return singlePrecisionModel;
+  }
+
+  public void setSinglePrecisionModel(boolean singlePrecisionModel) {
+    this.singlePrecisionModel = singlePrecisionModel;
+  }
+
+  public boolean getUpdateableModel() {
+    return updateableModel;
+  }
+
+  public void setUpdateableModel(boolean updateableModel) {
+    this.updateableModel = updateableModel;
+  }
+
   public int getMemInitialPoolSize() {
     return memInitialPoolSize;
   }
@@ -426,6 +746,18 @@ public class AIRS2 extends AbstractClassifier
   }
 
 
+  private void writeObject(ObjectOutputStream aStream) throws IOException {
+    aStream.defaultWriteObject();
+    // the training state is only needed to update the model
+    aStream.writeObject(updateableModel ? trainer : null);
+  }
+
+  private void readObject(ObjectInputStream aStream) throws IOException, ClassNotFoundException {
+    aStream.defaultReadObject();
+    trainer = (AIRS2Trainer) aStream.readObject();
+  }
+
+
   public static void main(String[] args) {
    runClassifier(new AIRS2(), args);
   }
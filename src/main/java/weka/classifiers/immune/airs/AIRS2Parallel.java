@@ -22,6 +22,7 @@ package weka.classifiers.immune.airs;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.immune.airs.algorithm.AIRS2ParallelTrainer;
 import weka.classifiers.immune.airs.algorithm.AISModelClassifier;
+import weka.classifiers.immune.airs.algorithm.Utils;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Option;
@@ -37,6 +38,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Type: AIRS1
@@ -69,10 +71,26 @@ public class AIRS2Parallel extends AbstractClassifier
 
   protected int knn;
 
+  protected boolean memoryCellIndex;
+
+  protected boolean varianceOrdering;
+
+  protected boolean singlePrecisionModel;
+
+  protected int thresholdMethod;
+
+  protected double thresholdError;
+
+  protected double thresholdConfidence;
+
   protected int numThreads;
 
   protected int mergeMode;
 
+  protected int timeout;
+
+  protected transient ExecutorService executorService;
+
   protected String trainingSummary;
 
   protected String classifierSummary;
@@ -88,9 +106,13 @@ public class AIRS2Parallel extends AbstractClassifier
       "V", // stimulation value
       "A", // num affinity threshold instances
       "E", // mem pool size
-      "K",  // kNN
+      "K", // kNN
       "N", // num threads
       "M", // mege mode
+      "T", // timeout
+      "P", // affinity threshold method
+      "L", // affinity threshold error
+      "O", // affinity threshold confidence
     };
 
 
@@ -106,13 +128,31 @@ public class AIRS2Parallel extends AbstractClassifier
       PARAM_MEM_INSTANCES,
       PARAM_KNN,
       PARAM_THREADS,
-      PARAM_MERGE
+      PARAM_MERGE,
+      PARAM_TIMEOUT,
+      PARAM_THRESHOLD_METHOD,
+      PARAM_THRESHOLD_ERROR,
+      PARAM_THRESHOLD_CONFIDENCE
+    };
+
+  private final static String INDEX_FLAG = "I";
+
+  private final static String VARIANCE_ORDER_FLAG = "G";
+
+  private final static String SINGLE_PRECISION_FLAG = "Z";
+
+  public final static Tag[] TAGS_THRESHOLD_METHOD =
+    {
+      new Tag(Utils.THRESHOLD_EXACT, "Exact"),
+      new Tag(Utils.THRESHOLD_EXACT_PARALLEL, "Exact (parallel)"),
+      new Tag(Utils.THRESHOLD_SAMPLED, "Sampled")
     };
 
   public final static Tag[] TAGS_MERGE_MODE =
     {
       new Tag(1, "Concatenate"),
-      new Tag(2, "Concatenate & Prune")
+      new Tag(2, "Concatenate & Prune"),
+      new Tag(3, "Shared memory cell pool")
     };
 
 
@@ -133,6 +173,9 @@ public class AIRS2Parallel extends AbstractClassifier
     numInstancesAffinityThreshold = -1;
     memInitialPoolSize = 1;
     knn = 3;
+    thresholdMethod = Utils.THRESHOLD_EXACT;
+    thresholdError = 0.01;
+    thresholdConfidence = 0.95;
 
     numThreads = 2;
     mergeMode = 1;
@@ -181,6 +224,9 @@ public class AIRS2Parallel extends AbstractClassifier
     else if (mergeMode == 2) {
       theMergeMode = AIRS2ParallelTrainer.MERGE_MODE.PRUNE;
     }
+    else if (mergeMode == 3) {
+      theMergeMode = AIRS2ParallelTrainer.MERGE_MODE.SHARED;
+    }
 
     // construct trainer
     Random rand = new Random(seed);
@@ -196,8 +242,14 @@ public class AIRS2Parallel extends AbstractClassifier
       knn,
       numThreads,
       theMergeMode);
+    trainer.setExecutor(executorService);
+    trainer.setTimeout(timeout * 1000L);
+    trainer.setMemoryCellIndex(memoryCellIndex);
+    trainer.setVarianceOrdering(varianceOrdering);
+    trainer.setAffinityThresholdEstimation(thresholdMethod, thresholdError, thresholdConfidence);
     // prepare classifier
     classifier = trainer.train(trainingInstances);
+    classifier.getModel().setSinglePrecision(singlePrecisionModel);
 
     // get summaries
     trainingSummary = trainer.getTrainingSummary();
@@ -216,6 +268,8 @@ public class AIRS2Parallel extends AbstractClassifier
     if (numThreads < 2) {
       throw new Exception("Number of threads must be more than 1.");
     }
+
+    Utils.validateAffinityThresholdEstimation(thresholdMethod, thresholdError, thresholdConfidence);
   }
 
 
@@ -230,6 +284,55 @@ public class AIRS2Parallel extends AbstractClassifier
     return classifier.classifyInstance(instance);
   }
 
+  /**
+   * Classifies a batch of instances, reading the memory cells in blocks that
+   * are reused by many instances. Tiles of the batch are classified
+   * on the executor service, by default the shared pool.
+   *
+   * @param instances
+   * @return the predicted class index of each instance
+   * @throws Exception
+   */
+  public double[] classifyInstances(Instances instances)
+    throws Exception {
+    return classifyInstances(instances, (executorService != null) ? executorService : Utils.getSharedExecutor());
+  }
+
+  /**
+   * @param instances
+   * @param executor runs tiles of the batch in parallel, null to classify on
+   *                 the calling thread
+   * @return the predicted class index of each instance
+   * @throws Exception
+   */
+  public double[] classifyInstances(Instances instances, ExecutorService executor)
+    throws Exception {
+    if (classifier == null) {
+      throw new Exception("Algorithm has not been prepared.");
+    }
+
+    int[] predictions = classifier.classifyInstances(instances, executor);
+    double[] result = new double[predictions.length];
+    for (int i = 0; i < predictions.length; i++) {
+      result[i] = predictions[i];
+    }
+    return result;
+  }
+
+  public boolean implementsMoreEfficientBatchPrediction() {
+    return true;
+  }
+
+  public double[][] distributionsForInstances(Instances instances)
+    throws Exception {
+    double[] predictions = classifyInstances(instances);
+    double[][] distributions = new double[predictions.length][instances.numClasses()];
+    for (int i = 0; i < predictions.length; i++) {
+      distributions[i][(int) predictions[i]] = 1.0;
+    }
+    return distributions;
+  }
+
 
   public String toString() {
     StringBuilder buffer = new StringBuilder();
@@ -278,6 +381,10 @@ public class AIRS2Parallel extends AbstractClassifier
       list.add(o);
     }
 
+    list.add(new Option(PARAM_INDEX, INDEX_FLAG, 0, "-" + INDEX_FLAG));
+    list.add(new Option(PARAM_VARIANCE_ORDER, VARIANCE_ORDER_FLAG, 0, "-" + VARIANCE_ORDER_FLAG));
+    list.add(new Option(PARAM_SINGLE_PRECISION, SINGLE_PRECISION_FLAG, 0, "-" + SINGLE_PRECISION_FLAG));
+
     return list.elements();
   }
 
@@ -298,6 +405,14 @@ public class AIRS2Parallel extends AbstractClassifier
 
     setNumThreads(OptionHelper.getInteger(PARAMETERS[9], options, 2));
     mergeMode = OptionHelper.getInteger(PARAMETERS[10], options, 1);
+    setTimeout(OptionHelper.getInteger(PARAMETERS[11], options, 0));
+    thresholdMethod = OptionHelper.getInteger(PARAMETERS[12], options, Utils.THRESHOLD_EXACT);
+    setThresholdError(OptionHelper.getDouble(PARAMETERS[13], options, 0.01));
+    setThresholdConfidence(OptionHelper.getDouble(PARAMETERS[14], options, 0.95));
+    // flag
+    setMemoryCellIndex(weka.core.Utils.getFlag(INDEX_FLAG, options));
+    setVarianceOrdering(weka.core.Utils.getFlag(VARIANCE_ORDER_FLAG, options));
+    setSinglePrecisionModel(weka.core.Utils.getFlag(SINGLE_PRECISION_FLAG, options));
     // parental option setting
     super.setOptions(options);
   }
@@ -331,6 +446,24 @@ public class AIRS2Parallel extends AbstractClassifier
     list.add(Integer.toString(numThreads));
     list.add("-" + PARAMETERS[10]);
     list.add(Integer.toString(mergeMode));
+    list.add("-" + PARAMETERS[11]);
+    list.add(Integer.toString(timeout));
+    list.add("-" + PARAMETERS[12]);
+    list.add(Integer.toString(thresholdMethod));
+    list.add("-" + PARAMETERS[13]);
+    list.add(Double.toString(thresholdError));
+    list.add("-" + PARAMETERS[14]);
+    list.add(Double.toString(thresholdConfidence));
+    // flag
+    if (memoryCellIndex) {
+      list.add("-" + INDEX_FLAG);
+    }
+    if (varianceOrdering) {
+      list.add("-" + VARIANCE_ORDER_FLAG);
+    }
+    if (singlePrecisionModel) {
+      list.add("-" + SINGLE_PRECISION_FLAG);
+    }
 
     return list.toArray(new String[0]);
   }
@@ -371,6 +504,30 @@ public class AIRS2Parallel extends AbstractClassifier
     return DESCRIPTIONS[7];
   }
 
+  public String thresholdMethodTipText() {
+    return DESCRIPTIONS[12];
+  }
+
+  public String thresholdErrorTipText() {
+    return DESCRIPTIONS[13];
+  }
+
+  public String thresholdConfidenceTipText() {
+    return DESCRIPTIONS[14];
+  }
+
+  public String memoryCellIndexTipText() {
+    return PARAM_INDEX;
+  }
+
+  public String varianceOrderingTipText() {
+    return PARAM_VARIANCE_ORDER;
+  }
+
+  public String singlePrecisionModelTipText() {
+    return PARAM_SINGLE_PRECISION;
+  }
+
   public String knnTipText() {
     return DESCRIPTIONS[8];
   }
@@ -383,6 +540,10 @@ public class AIRS2Parallel extends AbstractClassifier
     return DESCRIPTIONS[10];
   }
 
+  public String timeoutTipText() {
+    return DESCRIPTIONS[11];
+  }
+
 
   public double getAffinityThresholdScalar() {
     return affinityThresholdScalar;
@@ -424,6 +585,56 @@ public class AIRS2Parallel extends AbstractClassifier
     this.knn = knn;
   }
 
+  public SelectedTag getThresholdMethod() {
+    return new SelectedTag(thresholdMethod, TAGS_THRESHOLD_METHOD);
+  }
+
+  public void setThresholdMethod(SelectedTag l) {
+    if (l.getTags() == TAGS_THRESHOLD_METHOD) {
+      thresholdMethod = l.getSelectedTag().getID();
+    }
+  }
+
+  public double getThresholdError() {
+    return thresholdError;
+  }
+
+  public void setThresholdError(double thresholdError) {
+    this.thresholdError = thresholdError;
+  }
+
+  public double getThresholdConfidence() {
+    return thresholdConfidence;
+  }
+
+  public void setThresholdConfidence(double thresholdConfidence) {
+    this.thresholdConfidence = thresholdConfidence;
+  }
+
+  public boolean getMemoryCellIndex() {
+    return memoryCellIndex;
+  }
+
+  public void setMemoryCellIndex(boolean memoryCellIndex) {
+    this.memoryCellIndex = memoryCellIndex;
+  }
+
+  public boolean getVarianceOrdering() {
+    return varianceOrdering;
+  }
+
+  public void setVarianceOrdering(boolean varianceOrdering) {
+    this.varianceOrdering = varianceOrdering;
+  }
+
+  public boolean getSinglePrecisionModel() {
+    return singlePrecisionModel;
+  }
+
+  public void setSinglePrecisionModel(boolean singlePrecisionModel) {
+    this.singlePrecisionModel = singlePrecisionModel;
+  }
+
   public int getMemInitialPoolSize() {
     return memInitialPoolSize;
   }
@@ -473,6 +684,25 @@ public class AIRS2Parallel extends AbstractClassifier
     this.numThreads = numThreads;
   }
 
+  public int getTimeout() {
+    return timeout;
+  }
+
+  public void setTimeout(int timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * Provide the pool that partitions are trained on, for example to share one
+   * pool between several classifiers. By default a shared pool sized to the
+   * number of processors is used. The pool is not serialised with the model.
+   *
+   * @param executorService the pool, or null for the default
+   */
+  public void setExecutorService(ExecutorService executorService) {
+    this.executorService = executorService;
+  }
+
 
   /**
    * Set learning functiom
@@ -94,12 +94,61 @@ public interface AIRSParameterDocumentation {
 
   public final static String PARAM_THREADS =
     "Number of partitions. " +
-      "Specifies the number of partitions that the training dataset is broken into " +
-      "and thus the number of threads used to train the classifier.";
+      "Specifies the number of partitions that the training dataset is broken into. " +
+      "Partitions are trained concurrently on a shared pool of threads sized to the " +
+      "number of processors.";
 
   public final static String PARAM_MERGE =
     "Memory cell pool merge mode. " +
       "At the end of training all partitions, the memory cell pools that are prepared " +
       "are merged into a single master memory cell pool. This paramter allows different " +
-      "methods for creating the master memory cell pool.";
+      "methods for creating the master memory cell pool. The shared mode does not " +
+      "partition the data, all threads train concurrently against one memory cell pool.";
+
+  public final static String PARAM_TIMEOUT =
+    "Training timeout in seconds. " +
+      "The maximum time to wait for all partitions to be trained, after which the " +
+      "remaining partitions are cancelled and training fails. A value of 0 waits indefinitely.";
+
+  public final static String PARAM_THRESHOLD_METHOD =
+    "Affinity threshold (AT) method. " +
+      "Exact computes the mean affinity over every pair of instances, exact (parallel) " +
+      "does the same across all processors, and sampled estimates the mean from random " +
+      "pairs of instances until the confidence interval is within the requested error. " +
+      "Sampling is recommended for large datasets as the exact methods are quadratic.";
+
+  public final static String PARAM_THRESHOLD_ERROR =
+    "Affinity threshold (AT) error. " +
+      "The maximum error of the sampled affinity threshold, relative to the threshold. " +
+      "Only used by the sampled method.";
+
+  public final static String PARAM_THRESHOLD_CONFIDENCE =
+    "Affinity threshold (AT) confidence. " +
+      "The confidence that the sampled affinity threshold is within the error. " +
+      "Must be in the range (0,1). Only used by the sampled method.";
+
+  public final static String PARAM_INDEX =
+    "Memory cell index. " +
+      "Maintains a KD-tree over the numeric attributes of the memory cells to speed up " +
+      "the best match search during training and the k-nearest neighbour search during " +
+      "classification. The results are identical to a linear search; the index pays off " +
+      "for large memory cell pools with few attributes.";
+
+  public final static String PARAM_VARIANCE_ORDER =
+    "Order attributes by variance. " +
+      "Sums the distance over the attributes in order of decreasing variance, so that " +
+      "the nearest cell searches can abandon a cell after fewer attributes. Pays off " +
+      "for many attributes; distances may differ from the natural order in the last bits.";
+
+  public final static String PARAM_SINGLE_PRECISION =
+    "Single precision model. " +
+      "Rounds the attributes of the trained memory cells to single precision. The " +
+      "nearest cell searches of classification then read half as much memory, and the " +
+      "saved cells take half the space. Accuracy may differ slightly from double precision.";
+
+  public final static String PARAM_UPDATEABLE_MODEL =
+    "Updateable saved model. " +
+      "Saves the incremental training state (bounds, reservoir sample and random state) " +
+      "with the model, so a model loaded from disk can be updated with further instances. " +
+      "Without it the state is kept in memory only and saved models are batch-only.";
 }
@@ -0,0 +1,125 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Created on 17/10/2026
+ *
+ */
+package weka.classifiers.immune.airs;
+
+import weka.classifiers.immune.airs.algorithm.Cell;
+import weka.classifiers.immune.airs.algorithm.CellPool;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Type: ARBCompetitionBenchmark<br>
+ * File: ARBCompetitionBenchmark.java<br>
+ * Date: 17/10/2026<br>
+ * <br>
+ * Description: Compares the ARB competition for resources by sorting the
+ * whole pool and removing from the end with the selection of the ARBs to
+ * keep, on pools the size that a high clonal rate produces, checking that both
+ * keep the same ARBs in the same order. Then times AIRS2 training at
+ * increasing clonal rates.
+ * <br>
+ * Usage: ARBCompetitionBenchmark [poolSize] [clonalRate] [totalResources]
+ * <br>
+ *
+ * @author Jason Brownlee
+ */
+public class ARBCompetitionBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int poolSize = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+    double clonalRate = (args.length > 1) ? Double.parseDouble(args[1]) : 100.0;
+    double totalResources = (args.length > 2) ? Double.parseDouble(args[2]) : 150.0;
+    int numAttributes = 8;
+    int repeats = 200;
+    Random rand = new Random(1);
+
+    List<List<Cell>> pools = new ArrayList<List<Cell>>();
+    for (int r = 0; r < repeats; r++) {
+      List<Cell> cells = new ArrayList<Cell>(poolSize);
+      for (int i = 0; i < poolSize; i++) {
+	Cell c = new Cell(new double[numAttributes + 1], numAttributes);
+	// stimulation is normalised, so includes 0 and 1
+	double stimulation = (i == 0) ? 1.0 : (i == 1) ? 0.0 : rand.nextDouble();
+	c.setNumResources(stimulation * clonalRate);
+	cells.add(c);
+      }
+      pools.add(cells);
+    }
+
+    System.out.println("Pool size: " + poolSize + ", clonal rate: " + clonalRate + ", total resources: " + totalResources);
+    int mismatches = 0;
+    for (int repeat = 0; repeat < 3; repeat++) {
+      long sortTime = 0;
+      long selectTime = 0;
+      for (int r = 0; r < repeats; r++) {
+	CellPool sorted = new CellPool(pools.get(r));
+	CellPool selected = new CellPool(pools.get(r));
+	long start = System.nanoTime();
+	sortAndTrim(sorted, totalResources);
+	sortTime += System.nanoTime() - start;
+	start = System.nanoTime();
+	selected.retainMostResources(totalResources, new ArrayList<Cell>());
+	selectTime += System.nanoTime() - start;
+	if (!sorted.getCells().equals(selected.getCells())) {
+	  mismatches++;
+	}
+      }
+      System.out.println("Sort and trim: " + (sortTime / 1000000) + "ms, select: " + (selectTime / 1000000) + "ms");
+    }
+    System.out.println("Mismatched pools: " + mismatches);
+
+    // training time
+    Instances data = DistanceKernelBenchmark.generate(1000, numAttributes, rand);
+    double[] rates = {10.0, 10.0, 100.0, 400.0, 1000.0};
+    for (int i = 0; i < rates.length; i++) {
+      // the first run warms up
+      AIRS2 airs = new AIRS2();
+      airs.setClonalRate(rates[i]);
+      long start = System.nanoTime();
+      airs.buildClassifier(data);
+      System.out.println("AIRS2 clonal rate " + rates[i] + ": " + ((System.nanoTime() - start) / 1000000) + "ms");
+    }
+  }
+
+  /**
+   * The competition as it was done before selection, the cells with the least
+   * resources are removed from the end of the sorted pool
+   */
+  protected static void sortAndTrim(CellPool aPool, double aAllowed) {
+    double resources = 0.0;
+    for (int i = 0; i < aPool.size(); i++) {
+      resources += aPool.get(i).getNumResources();
+    }
+    aPool.orderByResources();
+    while (resources > aAllowed) {
+      Cell last = aPool.getLast();
+      if (last.getNumResources() <= resources - aAllowed) {
+	aPool.removeLast();
+	resources -= last.getNumResources();
+      }
+      else {
+	break;
+      }
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Created on 17/10/2026
+ *
+ */
+package weka.classifiers.immune.airs;
+
+import weka.classifiers.immune.airs.algorithm.AISModelClassifier;
+import weka.classifiers.immune.airs.algorithm.AffinityFunction;
+import weka.classifiers.immune.airs.algorithm.ArrayCellPool;
+import weka.classifiers.immune.airs.algorithm.Utils;
+import weka.classifiers.immune.airs.algorithm.classification.MajorityVote;
+import weka.core.Instances;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Normalize;
+
+import java.util.Random;
+
+/**
+ * Type: BatchClassificationBenchmark<br>
+ * File: BatchClassificationBenchmark.java<br>
+ * Date: 17/10/2026<br>
+ * <br>
+ * Description: Compares classifying instances one at a time against a large
+ * memory cell pool with the tiled batch classification, on the calling thread
+ * and on the shared pool, checking that all return the same predictions.
+ * <br>
+ * Usage: BatchClassificationBenchmark [numCells] [numAttributes] [numQueries] [k]
+ * <br>
+ *
+ * @author Jason Brownlee
+ */
+public class BatchClassificationBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int numCells = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+    int numAttributes = (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+    int numQueries = (args.length > 2) ? Integer.parseInt(args[2]) : 2000;
+    int k = (args.length > 3) ? Integer.parseInt(args[3]) : 3;
+    Random rand = new Random(1);
+
+    Instances data = DistanceKernelBenchmark.generate(numCells, numAttributes, rand);
+    Normalize normalise = new Normalize();
+    normalise.setInputFormat(data);
+    Instances normalised = Filter.useFilter(data, normalise);
+    AffinityFunction function = new AffinityFunction(normalised);
+    ArrayCellPool pool = new ArrayCellPool(data.numAttributes(), data.classIndex(), numCells);
+    for (int i = 0; i < normalised.numInstances(); i++) {
+      pool.add(normalised.instance(i).toDoubleArray());
+    }
+    AISModelClassifier classifier = new MajorityVote(k, normalise, pool, function);
+    Instances queries = DistanceKernelBenchmark.generate(numQueries, numAttributes, rand);
+
+    System.out.println("Cells: " + numCells + ", attributes: " + numAttributes + ", queries: " + numQueries + ", k: " + k);
+    int[] single = new int[numQueries];
+    int[] batch = null;
+    int[] parallel = null;
+    for (int repeat = 0; repeat < 3; repeat++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < numQueries; i++) {
+	single[i] = classifier.classifyInstance(queries.instance(i));
+      }
+      long singleTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      batch = classifier.classifyInstances(queries, null);
+      long batchTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      parallel = classifier.classifyInstances(queries, Utils.getSharedExecutor());
+      long parallelTime = System.nanoTime() - start;
+      System.out.println("One at a time: " + (singleTime / 1000000) + "ms, batch: " + (batchTime / 1000000)
+	+ "ms, parallel batch: " + (parallelTime / 1000000) + "ms");
+    }
+
+    // validate
+    int mismatches = 0;
+    for (int i = 0; i < numQueries; i++) {
+      if (single[i] != batch[i] || single[i] != parallel[i]) {
+	mismatches++;
+      }
+    }
+    System.out.println("Mismatched predictions: " + mismatches);
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Created on 17/10/2026
+ *
+ */
+package weka.classifiers.immune.airs;
+
+import weka.classifiers.immune.airs.algorithm.AffinityFunction;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Type: DistanceKernelBenchmark<br>
+ * File: DistanceKernelBenchmark.java<br>
+ * Date: 17/10/2026<br>
+ * <br>
+ * Description: Compares the per attribute distance measures with the all
+ * numeric kernel on a scan of a row-major attribute matrix, as done by the
+ * memory cell pool, and checks that both produce identical distances.
+ * <br>
+ * Usage: DistanceKernelBenchmark [numCells] [numAttributes] [numQueries]
+ * <br>
+ *
+ * @author Jason Brownlee
+ */
+public class DistanceKernelBenchmark {
+
+  public static void main(String[] args) {
+    int numCells = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+    int numAttributes = (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+    int numQueries = (args.length > 2) ? Integer.parseInt(args[2]) : 500;
+    Random rand = new Random(1);
+
+    Instances data = generate(numCells, numAttributes, rand);
+    AffinityFunction generic = new AffinityFunction(data, false);
+    AffinityFunction kernel = new AffinityFunction(data, true);
+
+    int width = data.numAttributes();
+    double[] matrix = new double[numCells * width];
+    for (int i = 0; i < numCells; i++) {
+      System.arraycopy(data.instance(i).toDoubleArray(), 0, matrix, i * width, width);
+    }
+    Instances queries = generate(numQueries, numAttributes, rand);
+    double[][] features = new double[numQueries][];
+    for (int i = 0; i < numQueries; i++) {
+      features[i] = queries.instance(i).toDoubleArray();
+    }
+
+    System.out.println("Cells: " + numCells + ", attributes: " + numAttributes + ", queries: " + numQueries);
+    for (int repeat = 0; repeat < 5; repeat++) {
+      long genericTime = System.nanoTime();
+      double genericSum = scan(generic, features, matrix, numCells, width);
+      genericTime = System.nanoTime() - genericTime;
+      long kernelTime = System.nanoTime();
+      double kernelSum = scan(kernel, features, matrix, numCells, width);
+      kernelTime = System.nanoTime() - kernelTime;
+      System.out.println("generic: " + (genericTime / 1000000) + "ms, kernel: " + (kernelTime / 1000000) + "ms"
+	+ ", identical: " + (genericSum == kernelSum));
+    }
+  }
+
+  protected static double scan(AffinityFunction aFunction, double[][] aFeatures, double[] aMatrix, int aNumCells, int aWidth) {
+    double total = 0.0;
+    for (int i = 0; i < aFeatures.length; i++) {
+      for (int j = 0; j < aNumCells; j++) {
+	total += aFunction.affinityUnnormalised(aFeatures[i], aMatrix, j * aWidth);
+      }
+    }
+    return total;
+  }
+
+  protected static Instances generate(int aNumInstances, int aNumAttributes, Random aRand) {
+    ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+    for (int i = 0; i < aNumAttributes; i++) {
+      attributes.add(new Attribute("a" + i));
+    }
+    ArrayList<String> classes = new ArrayList<String>();
+    classes.add("c0");
+    classes.add("c1");
+    attributes.add(new Attribute("class", classes));
+    Instances data = new Instances("benchmark", attributes, aNumInstances);
+    data.setClassIndex(aNumAttributes);
+
+    for (int i = 0; i < aNumInstances; i++) {
+      double[] v = new double[aNumAttributes + 1];
+      for (int j = 0; j < aNumAttributes; j++) {
+	v[j] = aRand.nextDouble();
+      }
+      v[aNumAttributes] = aRand.nextInt(2);
+      data.add(new DenseInstance(1.0, v));
+    }
+    return data;
+  }
+}
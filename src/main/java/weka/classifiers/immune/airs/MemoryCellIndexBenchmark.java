@@ -0,0 +1,172 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Created on 17/10/2026
+ *
+ */
+package weka.classifiers.immune.airs;
+
+import weka.classifiers.immune.affinity.NeighbourHeap;
+import weka.classifiers.immune.airs.algorithm.AffinityFunction;
+import weka.classifiers.immune.airs.algorithm.ArrayCellPool;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Type: MemoryCellIndexBenchmark<br>
+ * File: MemoryCellIndexBenchmark.java<br>
+ * Date: 17/10/2026<br>
+ * <br>
+ * Description: Compares the linear scan of a memory cell pool with the
+ * KD-tree index for k-nearest neighbour and same-class best match queries,
+ * checking that both return the same cells. The pool is churned with deletions
+ * and insertions to exercise the incremental index maintenance.
+ * <br>
+ * Usage: MemoryCellIndexBenchmark [numCells] [numAttributes] [numQueries] [k]
+ * <br>
+ *
+ * @author Jason Brownlee
+ */
+public class MemoryCellIndexBenchmark {
+
+  public static void main(String[] args) {
+    int numCells = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+    int numAttributes = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+    int numQueries = (args.length > 2) ? Integer.parseInt(args[2]) : 2000;
+    int k = (args.length > 3) ? Integer.parseInt(args[3]) : 3;
+    int numClasses = 3;
+    Random rand = new Random(1);
+
+    Instances data = generate(numCells, numAttributes, numClasses, rand);
+    AffinityFunction function = new AffinityFunction(data);
+    ArrayCellPool linear = new ArrayCellPool(data.numAttributes(), data.classIndex(), numCells);
+    ArrayCellPool indexed = new ArrayCellPool(data.numAttributes(), data.classIndex(), numCells);
+    indexed.buildIndex(function);
+    for (int i = 0; i < data.numInstances(); i++) {
+      double[] v = data.instance(i).toDoubleArray();
+      linear.add(v);
+      indexed.add(v);
+    }
+
+    // churn, as happens during training when memory cells are replaced
+    for (int i = 0; i < numCells / 4; i++) {
+      int row = rand.nextInt(linear.size());
+      linear.delete(row);
+      indexed.delete(row);
+      double[] v = generate(1, numAttributes, numClasses, rand).instance(0).toDoubleArray();
+      linear.add(v);
+      indexed.add(v);
+    }
+
+    Instances queries = generate(numQueries, numAttributes, numClasses, rand);
+    double[][] features = new double[numQueries][];
+    for (int i = 0; i < numQueries; i++) {
+      features[i] = queries.instance(i).toDoubleArray();
+    }
+
+    System.out.println("Cells: " + linear.size() + ", attributes: " + numAttributes + ", queries: " + numQueries + ", k: " + k);
+    for (int repeat = 0; repeat < 3; repeat++) {
+      long linearKnn = timeKnn(linear, function, features, k);
+      long indexedKnn = timeKnn(indexed, function, features, k);
+      long linearBest = timeBestMatch(linear, function, features);
+      long indexedBest = timeBestMatch(indexed, function, features);
+      System.out.println("kNN linear: " + (linearKnn / 1000000) + "ms, indexed: " + (indexedKnn / 1000000) + "ms"
+	+ "; best match linear: " + (linearBest / 1000000) + "ms, indexed: " + (indexedBest / 1000000) + "ms");
+    }
+
+    // validate
+    int mismatches = 0;
+    NeighbourHeap h1 = new NeighbourHeap(k);
+    NeighbourHeap h2 = new NeighbourHeap(k);
+    for (int i = 0; i < numQueries; i++) {
+      h1.clear();
+      h2.clear();
+      linear.nearestResponseUnnormalised(features[i], function, h1);
+      indexed.nearestResponseUnnormalised(features[i], function, h2);
+      int[] r1 = h1.sortedIndices();
+      int[] r2 = h2.sortedIndices();
+      for (int j = 0; j < h1.size(); j++) {
+	if (r1[j] != r2[j]) {
+	  mismatches++;
+	  break;
+	}
+      }
+      h1.clear();
+      h2.clear();
+      int classValue = (int) queries.instance(i).classValue();
+      linear.nearestResponseNormalised(features[i], function, classValue, h1);
+      indexed.nearestResponseNormalised(features[i], function, classValue, h2);
+      if (h1.getIndex(0) != h2.getIndex(0)) {
+	mismatches++;
+      }
+    }
+    System.out.println("Mismatched queries: " + mismatches);
+  }
+
+  protected static long timeKnn(ArrayCellPool aPool, AffinityFunction aFunction, double[][] aFeatures, int k) {
+    NeighbourHeap heap = new NeighbourHeap(k);
+    long start = System.nanoTime();
+    for (int i = 0; i < aFeatures.length; i++) {
+      heap.clear();
+      aPool.nearestResponseUnnormalised(aFeatures[i], aFunction, heap);
+    }
+    return System.nanoTime() - start;
+  }
+
+  protected static long timeBestMatch(ArrayCellPool aPool, AffinityFunction aFunction, double[][] aFeatures) {
+    NeighbourHeap heap = new NeighbourHeap(1);
+    int classIndex = aPool.getClassIndex();
+    long start = System.nanoTime();
+    for (int i = 0; i < aFeatures.length; i++) {
+      heap.clear();
+      aPool.nearestResponseNormalised(aFeatures[i], aFunction, (int) aFeatures[i][classIndex], heap);
+    }
+    return System.nanoTime() - start;
+  }
+
+  protected static Instances generate(int aNumInstances, int aNumAttributes, int aNumClasses, Random aRand) {
+    ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+    for (int i = 0; i < aNumAttributes; i++) {
+      attributes.add(new Attribute("a" + i));
+    }
+    ArrayList<String> classes = new ArrayList<String>();
+    for (int i = 0; i < aNumClasses; i++) {
+      classes.add("c" + i);
+    }
+    attributes.add(new Attribute("class", classes));
+    Instances data = new Instances("benchmark", attributes, aNumInstances);
+    data.setClassIndex(aNumAttributes);
+
+    for (int i = 0; i < aNumInstances; i++) {
+      double[] v = new double[aNumAttributes + 1];
+      int c = aRand.nextInt(aNumClasses);
+      for (int j = 0; j < aNumAttributes; j++) {
+	v[j] = aRand.nextDouble() + (c * 0.25);
+	// sprinkle some missing values
+	if (aRand.nextDouble() < 0.01) {
+	  v[j] = weka.core.Utils.missingValue();
+	}
+      }
+      v[aNumAttributes] = c;
+      data.add(new DenseInstance(1.0, v));
+    }
+    return data;
+  }
+}
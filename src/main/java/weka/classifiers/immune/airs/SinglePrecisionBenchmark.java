@@ -0,0 +1,137 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Created on 17/10/2026
+ *
+ */
+package weka.classifiers.immune.airs;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.immune.affinity.NeighbourHeap;
+import weka.classifiers.immune.airs.algorithm.AffinityFunction;
+import weka.classifiers.immune.airs.algorithm.ArrayCellPool;
+import weka.core.Instances;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.ReplaceMissingValues;
+
+import java.util.Random;
+
+/**
+ * Type: SinglePrecisionBenchmark<br>
+ * File: SinglePrecisionBenchmark.java<br>
+ * Date: 17/10/2026<br>
+ * <br>
+ * Description: Compares the k-nearest neighbour scan of a large memory cell
+ * pool held in double and in single precision, reporting how many queries
+ * return different cells, then reports the test accuracy of AIRS2, CLONALG
+ * and CSCA trained with and without the single precision model option.
+ * <br>
+ * Usage: SinglePrecisionBenchmark [numCells] [numAttributes] [numQueries] [k]
+ * <br>
+ *
+ * @author Jason Brownlee
+ */
+public class SinglePrecisionBenchmark {
+
+  protected final static String[] CLASSIFIERS =
+    {
+      "weka.classifiers.immune.airs.AIRS2",
+      "weka.classifiers.immune.clonalg.CLONALG",
+      "weka.classifiers.immune.clonalg.CSCA"
+    };
+
+  public static void main(String[] args) throws Exception {
+    int numCells = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+    int numAttributes = (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+    int numQueries = (args.length > 2) ? Integer.parseInt(args[2]) : 50;
+    int k = (args.length > 3) ? Integer.parseInt(args[3]) : 3;
+    Random rand = new Random(1);
+
+    Instances data = DistanceKernelBenchmark.generate(numCells, numAttributes, rand);
+    AffinityFunction function = new AffinityFunction(data);
+    ArrayCellPool doublePool = new ArrayCellPool(data.numAttributes(), data.classIndex(), numCells);
+    ArrayCellPool singlePool = new ArrayCellPool(data.numAttributes(), data.classIndex(), numCells);
+    for (int i = 0; i < data.numInstances(); i++) {
+      double[] v = data.instance(i).toDoubleArray();
+      doublePool.add(v);
+      singlePool.add(v);
+    }
+    singlePool.setSinglePrecision(true);
+
+    Instances queries = DistanceKernelBenchmark.generate(numQueries, numAttributes, rand);
+    double[][] features = new double[numQueries][];
+    for (int i = 0; i < numQueries; i++) {
+      features[i] = queries.instance(i).toDoubleArray();
+    }
+
+    System.out.println("Cells: " + numCells + ", attributes: " + numAttributes + ", queries: " + numQueries + ", k: " + k);
+    for (int repeat = 0; repeat < 5; repeat++) {
+      long doubleTime = MemoryCellIndexBenchmark.timeKnn(doublePool, function, features, k);
+      long singleTime = MemoryCellIndexBenchmark.timeKnn(singlePool, function, features, k);
+      System.out.println("kNN double: " + (doubleTime / 1000000) + "ms, single: " + (singleTime / 1000000) + "ms");
+    }
+
+    int differences = 0;
+    NeighbourHeap h1 = new NeighbourHeap(k);
+    NeighbourHeap h2 = new NeighbourHeap(k);
+    for (int i = 0; i < numQueries; i++) {
+      h1.clear();
+      h2.clear();
+      doublePool.nearestResponseUnnormalised(features[i], function, h1);
+      singlePool.nearestResponseUnnormalised(features[i], function, h2);
+      int[] r1 = h1.sortedIndices();
+      int[] r2 = h2.sortedIndices();
+      for (int j = 0; j < r1.length; j++) {
+	if (r1[j] != r2[j]) {
+	  differences++;
+	  break;
+	}
+      }
+    }
+    System.out.println("Queries with different neighbours: " + differences);
+
+    // accuracy of the trained models
+    Instances train = complete(MemoryCellIndexBenchmark.generate(2000, numAttributes, 3, rand));
+    Instances test = complete(MemoryCellIndexBenchmark.generate(1000, numAttributes, 3, rand));
+    for (int i = 0; i < CLASSIFIERS.length; i++) {
+      double doubleAccuracy = accuracy(CLASSIFIERS[i], new String[0], train, test);
+      double singleAccuracy = accuracy(CLASSIFIERS[i], new String[]{"-Z"}, train, test);
+      System.out.println(CLASSIFIERS[i] + " accuracy double: " + doubleAccuracy + "%, single: " + singleAccuracy + "%");
+    }
+  }
+
+  /**
+   * AIRS does not handle missing values, replace them with the means
+   */
+  protected static Instances complete(Instances aData) throws Exception {
+    ReplaceMissingValues filter = new ReplaceMissingValues();
+    filter.setInputFormat(aData);
+    return Filter.useFilter(aData, filter);
+  }
+
+  protected static double accuracy(String aName, String[] aOptions, Instances aTrain, Instances aTest) throws Exception {
+    Classifier classifier = AbstractClassifier.forName(aName, aOptions);
+    classifier.buildClassifier(aTrain);
+    int correct = 0;
+    for (int i = 0; i < aTest.numInstances(); i++) {
+      if (classifier.classifyInstance(aTest.instance(i)) == aTest.instance(i).classValue()) {
+	correct++;
+      }
+    }
+    return 100.0 * correct / aTest.numInstances();
+  }
+}
@@ -19,6 +19,7 @@
  */
 package weka.classifiers.immune.airs.algorithm;
 
+import weka.classifiers.immune.affinity.NeighbourHeap;
 import weka.classifiers.immune.airs.algorithm.classification.MajorityVote;
 import weka.classifiers.immune.airs.algorithm.initialisation.RandomInstancesInitialisation;
 import weka.classifiers.immune.airs.algorithm.samplegeneration.RandomMutate;
@@ -28,9 +29,10 @@ import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.Normalize;
 
 import java.text.NumberFormat;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Random;
 
 /**
@@ -44,6 +46,8 @@ import java.util.Random;
  */
 public class AIRS1Trainer implements AISTrainer {
 
+  protected final static int ARENA_CAPACITY = 1024;
+
   protected final double affinityThresholdScalar;
 
   protected final double clonalRate;
@@ -72,9 +76,33 @@ public class AIRS1Trainer implements AISTrainer {
 
   protected double affinityThreshold;
 
+  protected int affinityThresholdMethod = Utils.THRESHOLD_EXACT;
+
+  protected double affinityThresholdError;
+
+  protected double affinityThresholdConfidence;
+
   protected CellPool arbMemoryCellPool;
 
-  protected CellPool memoryCellPool;
+  protected ArrayCellPool memoryCellPool;
+
+  protected boolean memoryCellIndex;
+
+  protected boolean varianceOrdering;
+
+  protected CellArena arena;
+
+  // for each memory cell, the ARB it was taken from or null. AIRS1 keeps its
+  // ARB pool between antigens, and refinement of the ARB updates the
+  // stimulation the memory cell is compared with
+  protected ArrayList<Cell> memoryCellArbs;
+
+  // ARBs held by memory cells with the number of memory cells holding each,
+  // they are not returned to the arena
+  protected IdentityHashMap<Cell, Integer> sharedArbs;
+
+  // arbs of the class being competed for, reused for each class
+  protected final ArrayList<Cell> classArbs = new ArrayList<Cell>();
 
   // stats
   protected double meanClonesArb;
@@ -124,6 +152,9 @@ public class AIRS1Trainer implements AISTrainer {
 
   public void algorithmPreperation(Instances aInstances) {
     affinityFunction = new AffinityFunction(aInstances);
+    if (varianceOrdering) {
+      affinityFunction.orderByVariance(aInstances);
+    }
     arbSampleGeneration = prepareSampleGeneration(aInstances);
   }
 
@@ -163,7 +194,14 @@ public class AIRS1Trainer implements AISTrainer {
     // prepare the algorithm
     algorithmPreperation(trainingSet);
     // calculate affinity threshold
-    affinityThreshold = Utils.calculateAffinityThreshold(trainingSet, affinityThresholdNumInstances, rand, affinityFunction);
+    affinityThreshold = Utils.calculateAffinityThreshold(
+      trainingSet,
+      affinityThresholdNumInstances,
+      rand,
+      affinityFunction,
+      affinityThresholdMethod,
+      affinityThresholdError,
+      affinityThresholdConfidence);
     // perform the training
     return internalTrain(trainingSet, normalise);
   }
@@ -173,6 +211,33 @@ public class AIRS1Trainer implements AISTrainer {
     affinityThreshold = a;
   }
 
+  /**
+   * @param aMethod     one of the Utils.THRESHOLD_* methods
+   * @param aError      relative error bound of the sampled method
+   * @param aConfidence confidence of the error bound of the sampled method
+   */
+  public void setAffinityThresholdEstimation(int aMethod, double aError, double aConfidence) {
+    affinityThresholdMethod = aMethod;
+    affinityThresholdError = aError;
+    affinityThresholdConfidence = aConfidence;
+  }
+
+  /**
+   * @param a whether to maintain a KD-tree over the memory cells for the best
+   *          match search during training and the kNN search of the classifier
+   */
+  public void setMemoryCellIndex(boolean a) {
+    memoryCellIndex = a;
+  }
+
+  /**
+   * @param a whether to sum distances over the attributes in order of
+   *          decreasing variance, so that nearest cell searches stop sooner
+   */
+  public void setVarianceOrdering(boolean a) {
+    varianceOrdering = a;
+  }
+
 
   protected AISModelClassifier internalTrain(
     Instances trainingSet,
@@ -186,17 +251,19 @@ public class AIRS1Trainer implements AISTrainer {
       Instance current = trainingSet.instance(i);
 
       // identify best match from memory pool
-      Cell bestMatch = identifyMemoryPoolBestMatch(current);
-      if (bestMatch == null) {
-	bestMatch = addNewMemoryCell(current);
+      int bestMatch = identifyMemoryPoolBestMatch(current);
+      if (bestMatch == -1) {
+	addNewMemoryCell(current);
       }
       // never process best match that is identical to the instance
-      else if (bestMatch.getStimulation() == 1.0) {
+      else if (memoryCellPool.getStimulation(bestMatch) == 1.0) {
 	// do nothing
       }
       else {
 	// generate arbs and add to arb pool
-	generateARBs(bestMatch, current);
+	Cell best = memoryCellPool.toCell(bestMatch, arena.obtain());
+	generateARBs(best, current);
+	arena.recycle(best);
 	// get the candidate memory cell
 	Cell candidateMemoryCell = runARBRefinement(current);
 	// introduce the memory cell
@@ -235,12 +302,11 @@ public class AIRS1Trainer implements AISTrainer {
 
       // always executed the first time, or when the stop condition is not met
       if (!stopCondition || firstTime) {
-	LinkedList<Cell> arbs = new LinkedList<Cell>();
-	// 3c. variation (mutated clones)
-	for (Cell c : arbMemoryCellPool.getCells()) {
-	  arbs.addAll(generateARBVarients(aInstance, c));
+	// 3c. variation (mutated clones), appended after the current arbs
+	int numArbs = arbMemoryCellPool.size();
+	for (int i = 0; i < numArbs; i++) {
+	  generateARBVarients(aInstance, arbMemoryCellPool.get(i), arbMemoryCellPool);
 	}
-	arbMemoryCellPool.add(arbs);
 	firstTime = false;
       }
 
@@ -261,29 +327,35 @@ public class AIRS1Trainer implements AISTrainer {
   }
 
   protected void respondToCandidateMemoryCell(
-    Cell bestMatchMemoryCell,
+    int bestMatchMemoryCell,
     Cell candidateMemoryCell,
     Instance aInstance) {
     // recalculate candidate stimulation
     double candidateStimulation = stimulation(candidateMemoryCell, aInstance);
+    // the best match may itself be an ARB refined for this antigen
+    Cell bestMatchArb = memoryCellArbs.get(bestMatchMemoryCell);
+    double bestMatchStimulation = (bestMatchArb != null)
+      ? bestMatchArb.getStimulation()
+      : memoryCellPool.getStimulation(bestMatchMemoryCell);
     // check if candidate is better
-    if (candidateStimulation > bestMatchMemoryCell.getStimulation()) {
+    if (candidateStimulation > bestMatchStimulation) {
       // add candidate to memory pool
-      memoryCellPool.add(candidateMemoryCell);
+      addMemoryCell(candidateMemoryCell, candidateMemoryCell);
       // check previous best can be removed
-      double affinity = affinityFunction.affinityNormalised(bestMatchMemoryCell, candidateMemoryCell);
+      double affinity = affinityFunction.affinityNormalised(
+	candidateMemoryCell.getAttributes(),
+	memoryCellPool.getAttributeMatrix(),
+	memoryCellPool.getOffset(bestMatchMemoryCell));
       if (affinity < getMemoryCellReplacementCutoff()) {
 	// remove previous best
-	memoryCellPool.delete(bestMatchMemoryCell);
+	deleteMemoryCell(bestMatchMemoryCell);
 	totalMemoryCellReplacements++;
       }
     }
   }
 
 
-  protected LinkedList<Cell> generateARBVarients(Instance aInstance, Cell aArb) {
-    LinkedList<Cell> newARBs = new LinkedList<Cell>();
-
+  protected void generateARBVarients(Instance aInstance, Cell aArb, CellPool aNewARBs) {
     // determine the number of clones to produce
     int numClones = arbNumClones(aArb);
     // generate clones
@@ -292,12 +364,10 @@ public class AIRS1Trainer implements AISTrainer {
       Cell mutatedClone = arbSampleGeneration.generateSample(aArb, aInstance);
 
       // add to arb pool
-      newARBs.add(mutatedClone);
+      aNewARBs.add(mutatedClone);
     }
 
     meanClonesArb += numClones;
-
-    return newARBs;
   }
 
 
@@ -307,7 +377,8 @@ public class AIRS1Trainer implements AISTrainer {
     double[] meanStimulation = new double[numClasses];
     double[] classCount = new double[numClasses];
 
-    for (Cell c : arbMemoryCellPool.getCells()) {
+    for (int i = 0; i < arbMemoryCellPool.size(); i++) {
+      Cell c = arbMemoryCellPool.get(i);
       int index = (int) c.getClassification();
       meanStimulation[index] += c.getStimulation();
       classCount[index]++;
@@ -341,24 +412,24 @@ public class AIRS1Trainer implements AISTrainer {
   }
 
 
-  protected LinkedList<Cell> getAllArbsInClass(int aClassValue) {
-    LinkedList<Cell> cells = new LinkedList<Cell>();
+  protected List<Cell> getAllArbsInClass(int aClassValue, List<Cell> aCells) {
+    aCells.clear();
 
-    for (Iterator<Cell> iter = arbMemoryCellPool.iterator(); iter.hasNext(); ) {
-      Cell c = iter.next();
+    for (int i = 0; i < arbMemoryCellPool.size(); i++) {
+      Cell c = arbMemoryCellPool.get(i);
       if (aClassValue == c.getClassification()) {
-	cells.add(c);
+	aCells.add(c);
       }
     }
 
-    return cells;
+    return aCells;
   }
 
   protected Cell performARBCompetitionForResources(Instance aInstance) {
     Cell mostStimulatedSameClass = null;
 
     // calculate stimulation levels
-    LinkedList<Cell> sortedStimulated = stimulationNormalisation(arbMemoryCellPool.getCells(), aInstance);
+    List<Cell> sortedStimulated = stimulationNormalisation(arbMemoryCellPool.getCells(), aInstance);
     // normalise stimulation, allocate resources, sum resources for each class
     double[] resources = calculateResourceAllocations(sortedStimulated, aInstance);
 
@@ -367,7 +438,7 @@ public class AIRS1Trainer implements AISTrainer {
       // calculate resources allowed
       double numResAllowed = determineMaximumResourceAllocation(aInstance, i, resources.length);
       // collect all ARBs in this class
-      LinkedList<Cell> cells = getAllArbsInClass(i);
+      List<Cell> cells = getAllArbsInClass(i, classArbs);
       // sort by resource
       Collections.sort(cells, CellPool.resourceComparator);
 
@@ -375,13 +446,16 @@ public class AIRS1Trainer implements AISTrainer {
       while (resources[i] > numResAllowed) {
 	double numResourceToRemove = (resources[i] - numResAllowed);
 
-	Cell last = cells.getLast();
+	Cell last = cells.get(cells.size() - 1);
 	// check if element can be removed
 	if (last.getNumResources() <= numResourceToRemove) {
-	  cells.removeLast(); // remove from the temp list
+	  cells.remove(cells.size() - 1); // remove from the temp list
 	  arbMemoryCellPool.delete(last); // remove from the ARB pool
 	  totalArbDeletions++;
 	  resources[i] -= last.getNumResources();
+	  if (!sharedArbs.containsKey(last)) {
+	    arena.recycle(last);
+	  }
 	}
 	else {
 	  // decrement resources
@@ -395,24 +469,26 @@ public class AIRS1Trainer implements AISTrainer {
       if (i == aInstance.classValue()) {
 	// the list is orded by resource allocations, thus the best
 	// cell is always at the beginning of the list
-	mostStimulatedSameClass = cells.getFirst();
+	mostStimulatedSameClass = cells.get(0);
       }
     }
 
     for (int i = 0; i < resources.length; i++) {
       meanAllocatedResources += resources[i];
     }
+    classArbs.clear();
 
     return mostStimulatedSameClass;
   }
 
 
   protected double[] calculateResourceAllocations(
-    LinkedList<Cell> list,
+    List<Cell> list,
     Instance aInstance) {
     double[] resources = new double[aInstance.numClasses()];
 
-    for (Cell c : list) {
+    for (int i = 0; i < list.size(); i++) {
+      Cell c = list.get(i);
       // check for not the same class
       if (!Utils.isSameClass(aInstance, c)) {
 	double s = (1.0 - c.getStimulation()); // invert
@@ -430,7 +506,7 @@ public class AIRS1Trainer implements AISTrainer {
 
   protected void generateARBs(Cell aBestMatchMemoryCell, Instance aInstance) {
     // add best match to the arb pool
-    arbMemoryCellPool.add(new Cell(aBestMatchMemoryCell));
+    arbMemoryCellPool.add(arena.obtain(aBestMatchMemoryCell));
 
     // determine the number of clones to produce
     int numClones = memoryCellNumClones(aBestMatchMemoryCell);
@@ -447,32 +523,77 @@ public class AIRS1Trainer implements AISTrainer {
   }
 
 
-  protected Cell identifyMemoryPoolBestMatch(Instance aInstance) {
-    // get memory pool sorted by stimulation
-    LinkedList<Cell> stimulatedSorted = stimulation(memoryCellPool.getCells(), aInstance);
-    // process list until a member of the same class is located
-    for (Cell c : stimulatedSorted) {
-      if (Utils.isSameClass(aInstance, c)) {
-	return c;
+  protected int identifyMemoryPoolBestMatch(Instance aInstance) {
+    // most stimulated member of the same class has the lowest affinity
+    NeighbourHeap heap = new NeighbourHeap(1);
+    memoryCellPool.nearestResponseNormalised(aInstance.toDoubleArray(), affinityFunction, (int) aInstance.classValue(), heap);
+    int best = -1;
+    if (heap.size() > 0) {
+      best = heap.getIndex(0);
+      memoryCellPool.setStimulation(best, 1.0 - heap.getDistance(0));
+      Cell arb = memoryCellArbs.get(best);
+      if (arb != null) {
+	arb.setStimulation(memoryCellPool.getStimulation(best));
       }
     }
 
-    return null;
+    return best;
   }
 
-  protected Cell addNewMemoryCell(Instance aInstance) {
+  protected int addNewMemoryCell(Instance aInstance) {
     // no match, therefore create one
     Cell c = new Cell(aInstance);
     // add to memory cell pool
-    memoryCellPool.add(c);
-    return c;
+    return addMemoryCell(c, null);
+  }
+
+  /**
+   * @param aCell
+   * @param aArb the ARB the cell is taken from, or null
+   * @return the row of the new memory cell
+   */
+  protected int addMemoryCell(Cell aCell, Cell aArb) {
+    memoryCellArbs.add(aArb);
+    if (aArb != null) {
+      Integer count = sharedArbs.get(aArb);
+      sharedArbs.put(aArb, (count == null) ? 1 : count + 1);
+    }
+    return memoryCellPool.add(aCell);
+  }
+
+  protected void deleteMemoryCell(int aRow) {
+    Cell arb = memoryCellArbs.get(aRow);
+    if (arb != null) {
+      int count = sharedArbs.get(arb);
+      if (count == 1) {
+	sharedArbs.remove(arb);
+      }
+      else {
+	sharedArbs.put(arb, count - 1);
+      }
+    }
+    // the pool moves its last row into the deleted row
+    int last = memoryCellArbs.size() - 1;
+    memoryCellArbs.set(aRow, memoryCellArbs.get(last));
+    memoryCellArbs.remove(last);
+    memoryCellPool.delete(aRow);
   }
 
 
   protected void initialise(Instances aTrainingSet) {
     ModelInitialisation init = getModelInitialisation();
     arbMemoryCellPool = new CellPool(init.generateCellsList(aTrainingSet, arbCellPoolInitialSize));
-    memoryCellPool = new CellPool(init.generateCellsList(aTrainingSet, memoryCellPoolInitialSize));
+    memoryCellPool = new ArrayCellPool(
+      aTrainingSet.numAttributes(),
+      aTrainingSet.classIndex(),
+      init.generateCellsList(aTrainingSet, memoryCellPoolInitialSize));
+    if (memoryCellIndex) {
+      memoryCellPool.buildIndex(affinityFunction);
+    }
+    memoryCellArbs = new ArrayList<Cell>(Collections.<Cell>nCopies(memoryCellPool.size(), null));
+    sharedArbs = new IdentityHashMap<Cell, Integer>();
+    arena = new CellArena(aTrainingSet.numAttributes(), aTrainingSet.classIndex(), ARENA_CAPACITY);
+    arbSampleGeneration.setArena(arena);
   }
 
 
@@ -506,14 +627,15 @@ public class AIRS1Trainer implements AISTrainer {
   }
 
 
-  protected LinkedList<Cell> stimulationNormalisation(
-    LinkedList<Cell> cells,
+  protected List<Cell> stimulationNormalisation(
+    List<Cell> cells,
     Instance aInstance) {
     double min = Double.POSITIVE_INFINITY;
     double max = Double.NEGATIVE_INFINITY;
 
     // determine min and max
-    for (Cell c : cells) {
+    for (int i = 0; i < cells.size(); i++) {
+      Cell c = cells.get(i);
       double s = stimulation(c, aInstance);
 
       if (s < min) {
@@ -526,7 +648,8 @@ public class AIRS1Trainer implements AISTrainer {
 
     // normalise
     double range = (max - min);
-    for (Cell c : cells) {
+    for (int i = 0; i < cells.size(); i++) {
+      Cell c = cells.get(i);
       double s = c.getStimulation();
       double normalised = (s - min) / range;
       c.setStimulation(normalised);
@@ -540,16 +663,6 @@ public class AIRS1Trainer implements AISTrainer {
     return cells;
   }
 
-  protected LinkedList<Cell> stimulation(LinkedList<Cell> cells, Instance aInstance) {
-    // calculate stimulation for all the cells
-    for (Cell c : cells) {
-      stimulation(c, aInstance);
-    }
-    // order the population by stimulation
-    Collections.sort(cells, CellPool.stimulationComparator);
-    return cells;
-  }
-
   protected double stimulation(Cell aCell, Instance aInstance) {
     // calculate normalised affinity [0,1]
     double affinity = affinityFunction.affinityNormalised(aInstance, aCell);
@@ -25,16 +25,40 @@ import weka.core.Instances;
 import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.Normalize;
 
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Random;
-import java.util.concurrent.CountDownLatch;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Type: AIRS2ParallelTrainer<br>
  * File: AIRS2ParallelTrainer.java<br>
  * Date: 8/01/2005<br>
  * <br>
- * Description:
+ * Description: Trains AIRS2 on disjoint partitions of the training data and
+ * merges the resulting memory cell pools. Partitions are submitted as tasks to
+ * an ExecutorService, by default a shared daemon pool sized to the number of
+ * processors, so repeated training (for example within a cross validation)
+ * reuses the same threads and no more partitions run at once than there are
+ * cores. The failure of any partition cancels the remaining partitions and is
+ * rethrown from train(). Each partition draws from its own random stream,
+ * derived from the provided Random, so a given seed always produces the same
+ * model.
+ * <br>
+ * In the shared mode the data is not partitioned. Instead one worker per
+ * thread takes the next antigen from the training set and trains against a
+ * single memory cell pool shared by all workers (see SharedPoolAIRS2Trainer),
+ * so no merging is required and the model is comparable in size to that of
+ * AIRS2. The model then depends on the scheduling of the workers.
  * <br>
  *
  * @author Jason Brownlee
@@ -62,7 +86,8 @@ public class AIRS2ParallelTrainer implements AISTrainer {
   // different means of merging
   public enum MERGE_MODE {
     CONCATENATE,
-    PRUNE
+    PRUNE,
+    SHARED
   }
 
   // additional
@@ -72,9 +97,25 @@ public class AIRS2ParallelTrainer implements AISTrainer {
 
   protected double affinityThreshold;
 
+  protected int affinityThresholdMethod = Utils.THRESHOLD_EXACT;
+
+  protected double affinityThresholdError;
+
+  protected double affinityThresholdConfidence;
+
+  protected boolean memoryCellIndex;
+
+  protected boolean varianceOrdering;
+
   protected MemoryCellMerger merger;
 
-  protected CountDownLatch latch;
+  protected ExecutorService executor;
+
+  protected long timeout;
+
+  protected volatile List<? extends Future<?>> partitions;
+
+  protected volatile boolean cancelled;
 
   protected String[] trainingSummaries;
 
@@ -105,12 +146,46 @@ public class AIRS2ParallelTrainer implements AISTrainer {
     mergeMode = aMergeMode;
   }
 
+  /**
+   * @param aExecutor the pool to run partitions on, null for the shared pool
+   */
+  public void setExecutor(ExecutorService aExecutor) {
+    executor = aExecutor;
+  }
+
+  /**
+   * @param aTimeout maximum time to wait for all partitions in milliseconds,
+   *                 zero or less to wait indefinitely
+   */
+  public void setTimeout(long aTimeout) {
+    timeout = aTimeout;
+  }
+
+  /**
+   * Cancels any partitions of a training run in progress, the run then fails
+   * with a CancellationException. May be called from any thread.
+   */
+  public void cancel() {
+    cancelled = true;
+    List<? extends Future<?>> running = partitions;
+    if (running != null) {
+      cancel(running);
+    }
+  }
+
+  protected static void cancel(List<? extends Future<?>> aFutures) {
+    for (Future<?> f : aFutures) {
+      f.cancel(true);
+    }
+  }
+
   /**
    * @param aInstances
    * @return
    * @throws Exception
    */
   public AISModelClassifier train(Instances aInstances) throws Exception {
+    cancelled = false;
     // normalise the dataset
     Normalize normalise = new Normalize();
     normalise.setInputFormat(aInstances);
@@ -118,14 +193,22 @@ public class AIRS2ParallelTrainer implements AISTrainer {
 
     // calculate affinity threshold
     AffinityFunction affinityFunction = new AffinityFunction(trainingSet);
-    affinityThreshold = Utils.calculateAffinityThreshold(trainingSet, affinityThresholdNumInstances, rand, affinityFunction);
+    affinityThreshold = Utils.calculateAffinityThreshold(
+      trainingSet,
+      affinityThresholdNumInstances,
+      rand,
+      affinityFunction,
+      affinityThresholdMethod,
+      affinityThresholdError,
+      affinityThresholdConfidence);
 
-    // prepare latch
-    latch = new CountDownLatch(numThreads);
+    trainingSet.randomize(rand);
+    if (mergeMode == MERGE_MODE.SHARED) {
+      return trainShared(trainingSet, normalise);
+    }
 
     // divide up dataset
     Instances[] instances = new Instances[numThreads];
-    trainingSet.randomize(rand);
     int numPerThread = (int) Math.round((double) trainingSet.numInstances() / (double) numThreads);
     int offset = 0;
     for (int i = 0; i < instances.length; i++) {
@@ -139,46 +222,187 @@ public class AIRS2ParallelTrainer implements AISTrainer {
       }
     }
 
-    // prepare threads
-    AIRSProcess[] threads = new AIRSProcess[numThreads];
-    for (int i = 0; i < threads.length; i++) {
-      // prep algorithm
-      AIRS2Trainer algorithm = new AIRS2Trainer(
-	affinityThresholdScalar,
-	clonalRate,
-	hyperMutationRate,
-	totalResources,
-	stimulationThreshold,
-	affinityThresholdNumInstances,
-	rand,
-	memoryCellPoolInitialSize,
-	kNN);
-      // prepare algorithm - instances only needed for distance measure prep
-      algorithm.algorithmPreperation(trainingSet);
-      // create thread
-      threads[i] = new AIRSProcess(algorithm, instances[i], normalise);
-      // start the thread - don't need ref to it - got a latch
-      Thread t = new Thread(threads[i], "AIRS2 Thread Number: " + i); // name for debug if required
-      t.start();
+    // independent random stream per partition, so results do not depend on scheduling
+    SplittableRandom streams = new SplittableRandom(rand.nextLong());
+
+    // submit partitions
+    ExecutorService service = (executor != null) ? executor : Utils.getSharedExecutor();
+    AIRSProcess[] processes = new AIRSProcess[numThreads];
+    // cancel() may read the partitions from another thread while they are submitted
+    List<Future<ArrayCellPool>> futures = new CopyOnWriteArrayList<Future<ArrayCellPool>>();
+    partitions = futures;
+    try {
+      for (int i = 0; i < processes.length; i++) {
+	// prep algorithm
+	AIRS2Trainer algorithm = new AIRS2Trainer(
+	  affinityThresholdScalar,
+	  clonalRate,
+	  hyperMutationRate,
+	  totalResources,
+	  stimulationThreshold,
+	  affinityThresholdNumInstances,
+	  new Random(streams.split().nextLong()),
+	  memoryCellPoolInitialSize,
+	  kNN);
+	algorithm.setMemoryCellIndex(memoryCellIndex);
+	algorithm.setVarianceOrdering(varianceOrdering);
+	// prepare algorithm - instances only needed for distance measure prep
+	algorithm.algorithmPreperation(trainingSet);
+	processes[i] = new AIRSProcess(algorithm, instances[i], normalise);
+	futures.add(service.submit(processes[i]));
+      }
+      if (cancelled) {
+	throw new CancellationException("Training was cancelled.");
+      }
+
+      // collect memory cells, the first failure cancels the rest
+      ArrayCellPool[] cells = await(futures);
+      trainingSummaries = new String[numThreads];
+      for (int i = 0; i < processes.length; i++) {
+	trainingSummaries[i] = processes[i].getTrainingSummary();
+      }
+
+      // prepare classifier (merging)
+      merger = getMeger();
+      return merger.mergeMemoryCells(cells, kNN, normalise, affinityFunction, trainingSet);
+    }
+    catch (ExecutionException e) {
+      cancel(futures);
+      throw new Exception("Failed to prepare classifier partition.", e.getCause());
+    }
+    catch (TimeoutException e) {
+      cancel(futures);
+      throw new TimeoutException("Partitions did not complete within " + timeout + "ms.");
     }
+    catch (InterruptedException e) {
+      cancel(futures);
+      throw e;
+    }
+    catch (CancellationException e) {
+      cancel(futures);
+      throw e;
+    }
+    finally {
+      partitions = null;
+    }
+  }
 
-    // wait for all threads to complete
-    latch.await();
+  protected AISModelClassifier trainShared(Instances aTrainingSet, Normalize aNormalise) throws Exception {
+    // independent random stream per worker
+    SplittableRandom streams = new SplittableRandom(rand.nextLong());
+    ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    AtomicInteger next = new AtomicInteger();
+
+    ExecutorService service = (executor != null) ? executor : Utils.getSharedExecutor();
+    SharedProcess[] processes = new SharedProcess[numThreads];
+    // cancel() may read the partitions from another thread while they are submitted
+    List<Future<ArrayCellPool>> futures = new CopyOnWriteArrayList<Future<ArrayCellPool>>();
+    partitions = futures;
+    try {
+      SharedPoolAIRS2Trainer[] workers = new SharedPoolAIRS2Trainer[numThreads];
+      for (int i = 0; i < workers.length; i++) {
+	workers[i] = new SharedPoolAIRS2Trainer(
+	  affinityThresholdScalar,
+	  clonalRate,
+	  hyperMutationRate,
+	  totalResources,
+	  stimulationThreshold,
+	  affinityThresholdNumInstances,
+	  new Random(streams.split().nextLong()),
+	  memoryCellPoolInitialSize,
+	  kNN);
+	workers[i].setMemoryCellIndex(memoryCellIndex);
+	workers[i].setVarianceOrdering(varianceOrdering);
+	workers[i].algorithmPreperation(aTrainingSet);
+	workers[i].setAffinityThreshold(affinityThreshold);
+      }
+      // the first worker seeds the shared pool
+      workers[0].initialise(aTrainingSet);
+      for (int i = 0; i < workers.length; i++) {
+	workers[i].share(workers[0].getModel(), lock);
+      }
 
-    // collect memory cells
-    LinkedList[] cells = new LinkedList[numThreads];
-    trainingSummaries = new String[numThreads];
-    for (int i = 0; i < threads.length; i++) {
-      cells[i] = threads[i].getCells();
-      trainingSummaries[i] = threads[i].getTrainingSummary();
+      for (int i = 0; i < processes.length; i++) {
+	processes[i] = new SharedProcess(workers[i], aTrainingSet, next);
+	futures.add(service.submit(processes[i]));
+      }
+      if (cancelled) {
+	throw new CancellationException("Training was cancelled.");
+      }
+
+      await(futures);
+      trainingSummaries = new String[numThreads];
+      for (int i = 0; i < processes.length; i++) {
+	trainingSummaries[i] = processes[i].getTrainingSummary();
+      }
+      return workers[0].getClassifier(aNormalise);
+    }
+    catch (ExecutionException e) {
+      cancel(futures);
+      throw new Exception("Failed to train on the shared memory cell pool.", e.getCause());
     }
+    catch (TimeoutException e) {
+      cancel(futures);
+      throw new TimeoutException("Partitions did not complete within " + timeout + "ms.");
+    }
+    catch (InterruptedException e) {
+      cancel(futures);
+      throw e;
+    }
+    catch (CancellationException e) {
+      cancel(futures);
+      throw e;
+    }
+    finally {
+      partitions = null;
+    }
+  }
+
 
-    // prepare classifier (merging)
-    merger = getMeger();
-    AISModelClassifier classifier = merger.mergeMemoryCells(cells, kNN, normalise, affinityFunction, trainingSet);
-    return classifier;
+  /**
+   * @param aMethod     one of the Utils.THRESHOLD_* methods
+   * @param aError      relative error bound of the sampled method
+   * @param aConfidence confidence of the error bound of the sampled method
+   */
+  public void setAffinityThresholdEstimation(int aMethod, double aError, double aConfidence) {
+    affinityThresholdMethod = aMethod;
+    affinityThresholdError = aError;
+    affinityThresholdConfidence = aConfidence;
+  }
+
+  /**
+   * @param a whether each partition and the merged model maintain a KD-tree
+   *          over the memory cells
+   */
+  public void setMemoryCellIndex(boolean a) {
+    memoryCellIndex = a;
   }
 
+  /**
+   * @param a whether to sum distances over the attributes in order of
+   *          decreasing variance, so that nearest cell searches stop sooner
+   */
+  public void setVarianceOrdering(boolean a) {
+    varianceOrdering = a;
+  }
+
+  /**
+   * Waits for every task, within the timeout if there is one
+   */
+  protected ArrayCellPool[] await(List<Future<ArrayCellPool>> aFutures)
+    throws InterruptedException, ExecutionException, TimeoutException {
+    ArrayCellPool[] cells = new ArrayCellPool[aFutures.size()];
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    for (int i = 0; i < cells.length; i++) {
+      if (timeout > 0) {
+	cells[i] = aFutures.get(i).get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+      }
+      else {
+	cells[i] = aFutures.get(i).get();
+      }
+    }
+    return cells;
+  }
 
   protected MemoryCellMerger getMeger() {
     if (mergeMode == MERGE_MODE.CONCATENATE) {
@@ -191,7 +415,7 @@ public class AIRS2ParallelTrainer implements AISTrainer {
     throw new RuntimeException("Unknown merge mode: " + mergeMode);
   }
 
-  protected final class AIRSProcess implements Runnable {
+  protected final class AIRSProcess implements Callable<ArrayCellPool> {
 
     protected final AIRS2Trainer algorithm;
 
@@ -199,8 +423,6 @@ public class AIRS2ParallelTrainer implements AISTrainer {
 
     protected final Normalize normalise;
 
-    protected AISModelClassifier classifier;
-
     public AIRSProcess(
       AIRS2Trainer aAlgorithm,
       Instances aInstances,
@@ -210,24 +432,47 @@ public class AIRS2ParallelTrainer implements AISTrainer {
       normalise = aNormalise;
     }
 
-    public void run() {
+    public ArrayCellPool call() throws Exception {
       // set the affinity threshold manually
       algorithm.setAffinityThreshold(affinityThreshold);
       // run training
-      try {
-	classifier = algorithm.internalTrain(instances, normalise);
-      }
-      catch (Exception e) {
-	throw new RuntimeException("Failed to prepare classifier partition.", e);
-      }
-      finally {
-	// finished
-	latch.countDown();
-      }
+      return algorithm.internalTrain(instances, normalise).getModel();
+    }
+
+    public String getTrainingSummary() {
+      return algorithm.getTrainingSummary();
+    }
+  }
+
+  protected final class SharedProcess implements Callable<ArrayCellPool> {
+
+    protected final SharedPoolAIRS2Trainer algorithm;
+
+    protected final Instances instances;
+
+    protected final AtomicInteger next;
+
+    public SharedProcess(
+      SharedPoolAIRS2Trainer aAlgorithm,
+      Instances aInstances,
+      AtomicInteger aNext) {
+      algorithm = aAlgorithm;
+      instances = aInstances;
+      next = aNext;
     }
 
-    public LinkedList<Cell> getCells() {
-      return classifier.getModel().getCells();
+    public ArrayCellPool call() throws Exception {
+      int count = 0;
+      for (int i = next.getAndIncrement(); i < instances.numInstances(); i = next.getAndIncrement()) {
+	// allow the run to be cancelled
+	if (Thread.currentThread().isInterrupted()) {
+	  throw new InterruptedException("Training was interrupted.");
+	}
+	algorithm.trainInstance(instances.instance(i));
+	count++;
+      }
+      algorithm.prepareStatistics(count);
+      return algorithm.getModel();
     }
 
     public String getTrainingSummary() {
@@ -243,7 +488,12 @@ public class AIRS2ParallelTrainer implements AISTrainer {
     StringBuilder buffer = new StringBuilder();
 
     buffer.append(" - Parallel Training Summary - \n");
-    buffer.append("Total Partitions: " + numThreads);
+    if (mergeMode == MERGE_MODE.SHARED) {
+      buffer.append("Total Workers (shared memory cell pool): " + numThreads);
+    }
+    else {
+      buffer.append("Total Partitions: " + numThreads);
+    }
     buffer.append("\n\n");
 
     for (int i = 0; i < trainingSummaries.length; i++) {
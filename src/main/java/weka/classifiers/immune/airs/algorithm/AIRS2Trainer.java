@@ -19,18 +19,20 @@
  */
 package weka.classifiers.immune.airs.algorithm;
 
+import weka.classifiers.immune.affinity.NeighbourHeap;
 import weka.classifiers.immune.airs.algorithm.classification.MajorityVote;
 import weka.classifiers.immune.airs.algorithm.initialisation.RandomInstancesInitialisation;
 import weka.classifiers.immune.airs.algorithm.samplegeneration.StimulationProportionalMutation;
+import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.Normalize;
 
+import java.io.Serializable;
 import java.text.NumberFormat;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 /**
@@ -38,11 +40,20 @@ import java.util.Random;
  * File: AIRS1Trainer.java
  * Date: 30/12/2004
  * <p>
- * Description:
+ * Description: After batch training the trainer can continue to learn from
+ * single instances with update(). Each instance receives the same memory cell
+ * and ARB response as during batch training. The normalisation bounds are
+ * widened as new values are seen, and the affinity threshold is maintained as
+ * a running mean pairwise affinity, estimated for each new instance against a
+ * reservoir sample of the instances seen so far.
  *
  * @author Jason Brownlee
  */
-public class AIRS2Trainer implements AISTrainer {
+public class AIRS2Trainer implements AISTrainer, Serializable {
+
+  protected final static int RESERVOIR_CAPACITY = 500;
+
+  protected final static int ARENA_CAPACITY = 1024;
 
   protected final double affinityThresholdScalar;
 
@@ -68,7 +79,24 @@ public class AIRS2Trainer implements AISTrainer {
 
   protected double affinityThreshold;
 
-  protected CellPool memoryCellPool;
+  protected int affinityThresholdMethod = Utils.THRESHOLD_EXACT;
+
+  protected double affinityThresholdError;
+
+  protected double affinityThresholdConfidence;
+
+  protected ArrayCellPool memoryCellPool;
+
+  protected boolean memoryCellIndex;
+
+  protected boolean varianceOrdering;
+
+  // reused for every antigen, rebuilt on demand after deserialisation
+  protected transient CellArena arena;
+
+  protected transient CellPool arbCellPool;
+
+  protected transient List<Cell> removedArbs;
 
   // stats
   protected double meanClonesArb;
@@ -89,6 +117,21 @@ public class AIRS2Trainer implements AISTrainer {
 
   protected long totalTrainingInstances;
 
+  // incremental training
+  protected MinMaxNormalisation normalisation;
+
+  protected Instances header;
+
+  protected double[][] reservoir;
+
+  protected int reservoirSize;
+
+  protected long seenInstances;
+
+  protected double affinitySum;
+
+  protected double affinityPairs;
+
 
   public AIRS2Trainer(
     double aAffinityThresholdScalar,
@@ -114,6 +157,9 @@ public class AIRS2Trainer implements AISTrainer {
 
   public void algorithmPreperation(Instances aInstances) {
     affinityFunction = new AffinityFunction(aInstances);
+    if (varianceOrdering) {
+      affinityFunction.orderByVariance(aInstances);
+    }
     arbSampleGeneration = prepareSampleGeneration(aInstances);
   }
 
@@ -149,15 +195,171 @@ public class AIRS2Trainer implements AISTrainer {
     // prepare the algorithm
     algorithmPreperation(trainingSet);
     // calculate affinity threshold
-    affinityThreshold = Utils.calculateAffinityThreshold(trainingSet, affinityThresholdNumInstances, rand, affinityFunction);
+    affinityThreshold = Utils.calculateAffinityThreshold(
+      trainingSet,
+      affinityThresholdNumInstances,
+      rand,
+      affinityFunction,
+      affinityThresholdMethod,
+      affinityThresholdError,
+      affinityThresholdConfidence);
+    // state for incremental training
+    prepareUpdates(trainingSet, normalise);
     // perform the training
     return internalTrain(trainingSet, normalise);
   }
 
+  protected void prepareUpdates(Instances aTrainingSet, Normalize aNormalise) {
+    normalisation = new MinMaxNormalisation(aNormalise);
+    header = new Instances(aTrainingSet, 0);
+    // evenly spaced sample, avoids disturbing the random number sequence of batch training
+    int numInstances = aTrainingSet.numInstances();
+    reservoir = new double[RESERVOIR_CAPACITY][];
+    reservoirSize = Math.min(numInstances, RESERVOIR_CAPACITY);
+    for (int i = 0; i < reservoirSize; i++) {
+      reservoir[i] = aTrainingSet.instance((int) ((long) i * numInstances / reservoirSize)).toDoubleArray();
+    }
+    seenInstances = numInstances;
+    affinityPairs = (double) numInstances * (numInstances - 1) / 2.0;
+    affinitySum = affinityThreshold * affinityPairs;
+  }
+
+  /**
+   * Continue training on a single instance
+   *
+   * @param aInstance an instance in the original (unnormalised) space
+   * @return the classifier for the updated model
+   */
+  public AISModelClassifier update(Instance aInstance) throws Exception {
+    if (normalisation == null) {
+      throw new IllegalStateException("The trainer must be trained before it can be updated.");
+    }
+
+    // widen the bounds if required
+    MinMaxNormalisation bounds = normalisation.expand(aInstance);
+    if (bounds != normalisation) {
+      renormalise(bounds);
+    }
+
+    double[] features = normalisation.normalise(aInstance);
+    Instance current = new DenseInstance(aInstance.weight(), features);
+    current.setDataset(header);
+    updateAffinityThreshold(features);
+    trainInstance(current);
+
+    return getClassifier(normalisation);
+  }
+
+  /**
+   * Moves the memory cells, reservoir and running mean affinity into the
+   * space of the new bounds
+   */
+  protected void renormalise(MinMaxNormalisation aBounds) {
+    double previousAffinity = reservoirMeanAffinity();
+    MinMaxNormalisation previous = normalisation;
+    normalisation = aBounds;
+    double[] matrix = memoryCellPool.getAttributeMatrix();
+    for (int row = 0; row < memoryCellPool.size(); row++) {
+      normalisation.renormalise(matrix, memoryCellPool.getOffset(row), previous);
+    }
+    memoryCellPool.reindex();
+    for (int i = 0; i < reservoirSize; i++) {
+      normalisation.renormalise(reservoir[i], 0, previous);
+    }
+
+    // an attribute that gains a range changes the maximum distance
+    double[][] minmax = affinityFunction.getMinMax();
+    double[][] bounds = new double[minmax.length][];
+    for (int i = 0; i < bounds.length; i++) {
+      bounds[i] = minmax[i].clone();
+    }
+    normalisation.normalisedBounds(bounds);
+    affinityFunction = new AffinityFunction(affinityFunction, bounds);
+
+    // move the running mean affinity into the new space, by the change in
+    // the mean affinity of the reservoir
+    double affinity = reservoirMeanAffinity();
+    if (previousAffinity > 0.0) {
+      affinitySum *= affinity / previousAffinity;
+    }
+    else {
+      affinitySum = affinity * affinityPairs;
+    }
+    if (affinityPairs > 0.0) {
+      affinityThreshold = affinitySum / affinityPairs;
+    }
+  }
+
+  /**
+   * @return the mean affinity over all pairs of the reservoir
+   */
+  protected double reservoirMeanAffinity() {
+    double sum = 0.0;
+    for (int i = 0; i < reservoirSize; i++) {
+      for (int j = i + 1; j < reservoirSize; j++) {
+	sum += affinityFunction.affinityNormalised(reservoir[i], reservoir[j]);
+      }
+    }
+    double pairs = (double) reservoirSize * (reservoirSize - 1) / 2.0;
+    return (pairs > 0.0) ? sum / pairs : 0.0;
+  }
+
+  protected void updateAffinityThreshold(double[] aFeatures) {
+    if (reservoirSize > 0) {
+      double sum = 0.0;
+      for (int i = 0; i < reservoirSize; i++) {
+	sum += affinityFunction.affinityNormalised(aFeatures, reservoir[i]);
+      }
+      // the new instance pairs with every instance seen so far
+      affinitySum += (sum / reservoirSize) * seenInstances;
+      affinityPairs += seenInstances;
+      affinityThreshold = affinitySum / affinityPairs;
+    }
+
+    // keep a uniform sample of everything seen
+    seenInstances++;
+    if (reservoirSize < RESERVOIR_CAPACITY) {
+      reservoir[reservoirSize++] = aFeatures;
+    }
+    else {
+      long j = (long) (rand.nextDouble() * seenInstances);
+      if (j < RESERVOIR_CAPACITY) {
+	reservoir[(int) j] = aFeatures;
+      }
+    }
+  }
+
   public void setAffinityThreshold(double a) {
     affinityThreshold = a;
   }
 
+  /**
+   * @param aMethod     one of the Utils.THRESHOLD_* methods
+   * @param aError      relative error bound of the sampled method
+   * @param aConfidence confidence of the error bound of the sampled method
+   */
+  public void setAffinityThresholdEstimation(int aMethod, double aError, double aConfidence) {
+    affinityThresholdMethod = aMethod;
+    affinityThresholdError = aError;
+    affinityThresholdConfidence = aConfidence;
+  }
+
+  /**
+   * @param a whether to maintain a KD-tree over the memory cells for the best
+   *          match search during training and the kNN search of the classifier
+   */
+  public void setMemoryCellIndex(boolean a) {
+    memoryCellIndex = a;
+  }
+
+  /**
+   * @param a whether to sum distances over the attributes in order of
+   *          decreasing variance, so that nearest cell searches stop sooner
+   */
+  public void setVarianceOrdering(boolean a) {
+    varianceOrdering = a;
+  }
+
   protected AISModelClassifier internalTrain(
     Instances trainingSet,
     Normalize normalise)
@@ -167,28 +369,11 @@ public class AIRS2Trainer implements AISTrainer {
 
     // train model on each instance
     for (int i = 0; i < trainingSet.numInstances(); i++) {
-      Instance current = trainingSet.instance(i);
-      CellPool arbCellPool = new CellPool(new LinkedList<Cell>());
-
-      // identify best match from memory pool
-      Cell bestMatch = identifyMemoryPoolBestMatch(current);
-      if (bestMatch == null) {
-	bestMatch = addNewMemoryCell(current);
+      // allow a parallel run to be cancelled
+      if (Thread.currentThread().isInterrupted()) {
+	throw new InterruptedException("Training was interrupted.");
       }
-      // check for an identical match
-      else if (bestMatch.getStimulation() == 1.0) {
-	// do nothing
-      }
-      else {
-	// generate arbs and add to arb pool
-	generateARBs(arbCellPool, bestMatch, current);
-	// perform ARB refinement
-	Cell candidate = runARBRefinement(arbCellPool, current);
-	// respond to candidate
-	respondToCandidateMemoryCell(bestMatch, candidate, current);
-      }
-
-      //			System.out.println("Finished "+(i+1)+"/"+trainingSet.numInstances());
+      trainInstance(trainingSet.instance(i));
     }
 
     // prepare statistics
@@ -198,6 +383,41 @@ public class AIRS2Trainer implements AISTrainer {
     return classifier;
   }
 
+  protected void trainInstance(Instance current) {
+    if (arena == null) {
+      initialiseArena(current.numAttributes(), current.classIndex());
+    }
+
+    // identify best match from memory pool
+    int bestMatch = identifyMemoryPoolBestMatch(current);
+    if (bestMatch == -1) {
+      addNewMemoryCell(current);
+    }
+    // check for an identical match
+    else if (memoryCellPool.getStimulation(bestMatch) == 1.0) {
+      // do nothing
+    }
+    else {
+      // generate arbs and add to arb pool
+      Cell best = memoryCellPool.toCell(bestMatch, arena.obtain());
+      generateARBs(arbCellPool, best, current);
+      arena.recycle(best);
+      // perform ARB refinement
+      Cell candidate = runARBRefinement(arbCellPool, current);
+      // respond to candidate
+      respondToCandidateMemoryCell(bestMatch, candidate, current);
+      // the memory pool holds a copy of the candidate, all arbs can be reused
+      arena.recycle(arbCellPool.getCells());
+    }
+  }
+
+  protected void initialiseArena(int aNumAttributes, int aClassIndex) {
+    arena = new CellArena(aNumAttributes, aClassIndex, ARENA_CAPACITY);
+    arbCellPool = new CellPool();
+    removedArbs = new ArrayList<Cell>();
+    arbSampleGeneration.setArena(arena);
+  }
+
   protected void prepareStatistics(int aNumTrainingInstances) {
     totalTrainingInstances = aNumTrainingInstances;
     meanClonesArb /= totalArbRefinementIterations;
@@ -221,12 +441,11 @@ public class AIRS2Trainer implements AISTrainer {
       stopCondition = isStoppingCriterion(aArbCellPool, aInstance);
 
       if (!stopCondition) {
-	LinkedList<Cell> arbs = new LinkedList<Cell>();
-	// 3c. variation (mutated clones)
-	for (Cell c : aArbCellPool.getCells()) {
-	  arbs.addAll(generateARBVarients(aInstance, c));
+	// 3c. variation (mutated clones), appended after the current arbs
+	int numArbs = aArbCellPool.size();
+	for (int i = 0; i < numArbs; i++) {
+	  generateARBVarients(aInstance, aArbCellPool.get(i), aArbCellPool);
 	}
-	aArbCellPool.add(arbs);
       }
 
       // stats
@@ -249,18 +468,25 @@ public class AIRS2Trainer implements AISTrainer {
     return classifier;
   }
 
+  protected AISModelClassifier getClassifier(MinMaxNormalisation aNormalisation) {
+    return new MajorityVote(kNN, aNormalisation, memoryCellPool, affinityFunction);
+  }
+
   protected void respondToCandidateMemoryCell(
-    Cell bestMatchMemoryCell,
+    int bestMatchMemoryCell,
     Cell candidateMemoryCell,
     Instance aInstance) {
     // recalculate candidate stimulation
     double candidateStimulation = stimulation(candidateMemoryCell, aInstance);
     // check if candidate is better
-    if (candidateStimulation > bestMatchMemoryCell.getStimulation()) {
+    if (candidateStimulation > memoryCellPool.getStimulation(bestMatchMemoryCell)) {
       // add candidate to memory pool
       memoryCellPool.add(candidateMemoryCell);
       // check previous best can be removed
-      double affinity = affinityFunction.affinityNormalised(bestMatchMemoryCell, candidateMemoryCell);
+      double affinity = affinityFunction.affinityNormalised(
+	candidateMemoryCell.getAttributes(),
+	memoryCellPool.getAttributeMatrix(),
+	memoryCellPool.getOffset(bestMatchMemoryCell));
       if (affinity < getMemoryCellReplacementCutoff()) {
 	// remove previous best
 	memoryCellPool.delete(bestMatchMemoryCell);
@@ -270,9 +496,7 @@ public class AIRS2Trainer implements AISTrainer {
   }
 
 
-  protected LinkedList<Cell> generateARBVarients(Instance aInstance, Cell aArb) {
-    LinkedList<Cell> newARBs = new LinkedList<Cell>();
-
+  protected void generateARBVarients(Instance aInstance, Cell aArb, CellPool aNewARBs) {
     // determine the number of clones to produce
     int numClones = arbNumClones(aArb);
     // generate clones
@@ -281,12 +505,10 @@ public class AIRS2Trainer implements AISTrainer {
       Cell mutatedClone = arbSampleGeneration.generateSample(aArb, aInstance);
 
       // add to arb pool
-      newARBs.add(mutatedClone);
+      aNewARBs.add(mutatedClone);
     }
 
     meanClonesArb += numClones;
-
-    return newARBs;
   }
 
 
@@ -296,9 +518,8 @@ public class AIRS2Trainer implements AISTrainer {
     double meanStimulation = 0.0;
 
     // sum stimulation values
-    for (Iterator<Cell> iter = aArbCellPool.iterator(); iter.hasNext(); ) {
-      Cell c = iter.next();
-      meanStimulation += c.getStimulation();
+    for (int i = 0; i < aArbCellPool.size(); i++) {
+      meanStimulation += aArbCellPool.get(i).getStimulation();
     }
 
     meanStimulation = (meanStimulation / aArbCellPool.size());
@@ -330,29 +551,22 @@ public class AIRS2Trainer implements AISTrainer {
     // allocate resources to arbs based on stimulation
     double resources = calculateResourceAllocations(aArbCellPool, aInstance);
 
-    // continue until the resources for this class is below a threshold
-    LinkedList<Cell> cells = aArbCellPool.getCells();
-    while (resources > numResAllowed) {
+    // order by allocated resources, removing the least stimulated arbs until
+    // the resources are below a threshold
+    resources = aArbCellPool.retainMostResources(numResAllowed, removedArbs);
+    totalArbDeletions += removedArbs.size();
+    arena.recycle(removedArbs);
+    if (resources > numResAllowed) {
+      // decrement resources of the last arb kept
       double numResourceToRemove = (resources - numResAllowed);
-      Cell last = cells.getLast();
-
-      // check if element can be removed
-      if (last.getNumResources() <= numResourceToRemove) {
-	// remove from everywhere
-	cells.removeLast();
-	totalArbDeletions++;
-	resources -= last.getNumResources();
-      }
-      else {
-	// decrement resources
-	double res = last.getNumResources() - numResourceToRemove;
-	last.setNumResources(res);
-	resources -= numResourceToRemove;
-      }
+      Cell last = aArbCellPool.getLast();
+      double res = last.getNumResources() - numResourceToRemove;
+      last.setNumResources(res);
+      resources -= numResourceToRemove;
     }
 
     // best ARB will always have the most resources
-    mostStimulatedSameClass = cells.getFirst();
+    mostStimulatedSameClass = aArbCellPool.getFirst();
 
     // stats
     meanAllocatedResources += resources;
@@ -365,14 +579,12 @@ public class AIRS2Trainer implements AISTrainer {
     Instance aInstance) {
     double resources = 0.0;
 
-    for (Iterator<Cell> iter = cellPool.iterator(); iter.hasNext(); ) {
-      Cell c = iter.next();
+    for (int i = 0; i < cellPool.size(); i++) {
+      Cell c = cellPool.get(i);
       double r = (c.getStimulation() * clonalRate);
       c.setNumResources(r);
       resources += r;
     }
-    // order by allocated resources
-    cellPool.orderByResources();
     return resources;
   }
 
@@ -381,7 +593,7 @@ public class AIRS2Trainer implements AISTrainer {
     Cell aBestMatchMemoryCell,
     Instance aInstance) {
     // add best match to the arb pool
-    arbCellPool.add(new Cell(aBestMatchMemoryCell));
+    arbCellPool.add(arena.obtain(aBestMatchMemoryCell));
 
     // determine the number of clones to produce
     int numClones = memoryCellNumClones(aBestMatchMemoryCell);
@@ -397,33 +609,39 @@ public class AIRS2Trainer implements AISTrainer {
   }
 
 
-  protected Cell identifyMemoryPoolBestMatch(Instance aInstance) {
-    // get memory pool sorted by stimulation
-    LinkedList<Cell> stimulatedSorted = stimulation(memoryCellPool.getCells(), aInstance);
-    // process list until a member of the same class is located
-    for (Cell c : stimulatedSorted) {
-      if (Utils.isSameClass(aInstance, c)) {
-	return c;
-      }
+  protected int identifyMemoryPoolBestMatch(Instance aInstance) {
+    // most stimulated member of the same class has the lowest affinity
+    NeighbourHeap heap = new NeighbourHeap(1);
+    memoryCellPool.nearestResponseNormalised(aInstance.toDoubleArray(), affinityFunction, (int) aInstance.classValue(), heap);
+    int best = -1;
+    if (heap.size() > 0) {
+      best = heap.getIndex(0);
+      memoryCellPool.setStimulation(best, 1.0 - heap.getDistance(0));
     }
 
-    return null;
+    return best;
   }
 
-  protected Cell addNewMemoryCell(Instance aInstance) {
+  protected int addNewMemoryCell(Instance aInstance) {
     // no match, therefore create one
     Cell c = new Cell(aInstance);
-    // add to memory cell pool
-    memoryCellPool.add(c);
     double s = stimulation(c, aInstance);
     c.setStimulation(s);
-    return c;
+    // add to memory cell pool
+    return memoryCellPool.add(c);
   }
 
 
   protected void initialise(Instances aTrainingSet) {
     ModelInitialisation init = getModelInitialisation();
-    memoryCellPool = new CellPool(init.generateCellsList(aTrainingSet, memoryCellPoolInitialSize));
+    memoryCellPool = new ArrayCellPool(
+      aTrainingSet.numAttributes(),
+      aTrainingSet.classIndex(),
+      init.generateCellsList(aTrainingSet, memoryCellPoolInitialSize));
+    if (memoryCellIndex) {
+      memoryCellPool.buildIndex(affinityFunction);
+    }
+    initialiseArena(aTrainingSet.numAttributes(), aTrainingSet.classIndex());
   }
 
 
@@ -463,10 +681,15 @@ public class AIRS2Trainer implements AISTrainer {
     double min = Double.POSITIVE_INFINITY;
     double max = Double.NEGATIVE_INFINITY;
 
-    // determine min and max
-    for (Iterator<Cell> iter = cells.iterator(); iter.hasNext(); ) {
-      Cell c = iter.next();
-      double s = stimulation(c, aInstance);
+    // determine min and max, the antigen is fixed for the whole refinement so
+    // only arbs created since the last iteration need their affinity
+    for (int i = 0; i < cells.size(); i++) {
+      Cell c = cells.get(i);
+      double s = c.getRawStimulation();
+      if (Double.isNaN(s)) {
+	s = stimulation(c, aInstance);
+	c.setRawStimulation(s);
+      }
 
       if (s < min) {
 	min = s;
@@ -483,9 +706,9 @@ public class AIRS2Trainer implements AISTrainer {
       throw new RuntimeException("Infinite loop condition detected: range of stimulation values is zero.");
     }
 
-    for (Iterator<Cell> iter = cells.iterator(); iter.hasNext(); ) {
-      Cell c = iter.next();
-      double normalised = (c.getStimulation() - min) / range;
+    for (int i = 0; i < cells.size(); i++) {
+      Cell c = cells.get(i);
+      double normalised = (c.getRawStimulation() - min) / range;
       c.setStimulation(normalised);
 
       // validation
@@ -495,16 +718,6 @@ public class AIRS2Trainer implements AISTrainer {
     }
   }
 
-  protected LinkedList<Cell> stimulation(LinkedList<Cell> cells, Instance aInstance) {
-    // calculate stimulation for all the cells
-    for (Cell c : cells) {
-      stimulation(c, aInstance);
-    }
-    // order the population by stimulation
-    Collections.sort(cells, CellPool.stimulationComparator);
-    return cells;
-  }
-
   protected double stimulation(Cell aCell, Instance aInstance) {
     // calculate normalised affinity [0,1]
     double affinity = affinityFunction.affinityNormalised(aInstance, aCell);
@@ -19,48 +19,101 @@
  */
 package weka.classifiers.immune.airs.algorithm;
 
+import weka.classifiers.immune.affinity.NeighbourHeap;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.filters.unsupervised.attribute.Normalize;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Type: AISModelClassifier
  * File: AISModelClassifier.java
  * Date: 30/12/2004
  * <p>
- * Description:
+ * Description: A trained model is never modified by classification, a single
+ * instance can serve any number of threads concurrently. All per-call state
+ * is allocated by the calling thread.
  *
  * @author Jason Brownlee
  */
 public abstract class AISModelClassifier implements Serializable {
 
+  // vectors scored together against each block of memory cells
+  protected final static int BATCH_TILE_SIZE = 64;
+
+  // bytes of memory cells in a block, sized to stay in the L2 cache
+  protected final static int BATCH_BLOCK_BYTES = 128 * 1024;
+
   protected final int kNumNeighbours;
 
-  protected final Normalize normaliser;
+  protected final MinMaxNormalisation normalisation;
 
-  protected final CellPool model;
+  protected final ArrayCellPool model;
 
   protected final AffinityFunction affinityFunction;
 
+  // per thread buffers for classifyInstance, the model is shared read only
+  protected transient ThreadLocal<double[]> featureBuffers;
+
+  protected transient ThreadLocal<NeighbourHeap> neighbourHeaps;
+
 
   public AISModelClassifier(
     int aKNumNeighbours,
     Normalize aNormalise,
-    CellPool aCellPool,
+    ArrayCellPool aCellPool,
+    AffinityFunction aAffinityFunction) {
+    this(aKNumNeighbours, new MinMaxNormalisation(aNormalise), aCellPool, aAffinityFunction);
+  }
+
+  /**
+   * For models whose bounds are maintained incrementally rather than by a
+   * trained filter
+   */
+  public AISModelClassifier(
+    int aKNumNeighbours,
+    MinMaxNormalisation aNormalisation,
+    ArrayCellPool aCellPool,
     AffinityFunction aAffinityFunction) {
-    normaliser = aNormalise;
+    normalisation = aNormalisation;
     model = aCellPool;
     affinityFunction = aAffinityFunction;
 
     // adjust knn
-    int totalElements = model.getCells().size();
+    int totalElements = model.size();
     if (aKNumNeighbours > totalElements) {
       aKNumNeighbours = totalElements;
     }
     kNumNeighbours = aKNumNeighbours;
+    createBuffers();
+  }
+
+  protected void createBuffers() {
+    final int numAttributes = model.getNumAttributes();
+    featureBuffers = new ThreadLocal<double[]>() {
+      protected double[] initialValue() {
+	return new double[numAttributes];
+      }
+    };
+    neighbourHeaps = new ThreadLocal<NeighbourHeap>() {
+      protected NeighbourHeap initialValue() {
+	return new NeighbourHeap(kNumNeighbours);
+      }
+    };
+  }
+
+  private void readObject(ObjectInputStream aStream) throws IOException, ClassNotFoundException {
+    aStream.defaultReadObject();
+    createBuffers();
   }
 
 
@@ -77,11 +130,11 @@ public abstract class AISModelClassifier implements Serializable {
     int numClasses = aInstances.numClasses();
     int[] counts = new int[numClasses];
 
-    for (Cell c : model.getCells()) {
-      counts[(int) c.getClassification()]++;
+    for (int i = 0; i < model.size(); i++) {
+      counts[model.getClassification(i)]++;
     }
     buffer.append(" - Classifier Memory Cells - \n");
-    buffer.append("Total: " + model.getCells().size() + "\n");
+    buffer.append("Total: " + model.size() + "\n");
     for (int i = 0; i < counts.length; i++) {
       int val = counts[i];
       buffer.append(aInstances.classAttribute().value(i) + ": " + val + "\n");
@@ -90,37 +143,168 @@ public abstract class AISModelClassifier implements Serializable {
     return buffer.toString();
   }
 
-  protected int[] determineClassCountForkNN(
-    Instance aInstance,
-    LinkedList<Cell> affinitySortedCells) {
-    int numClasses = aInstance.classAttribute().numValues();
+  /**
+   * Locates the k memory cells with the best affinity to the vector in
+   * O(n log k), without reordering or otherwise modifying the model
+   *
+   * @param aFeatures
+   * @return rows of the k best cells, most similar first, valid until the
+   * next call by the same thread
+   */
+  protected int[] selectKNearest(double[] aFeatures) {
+    NeighbourHeap heap = neighbourHeaps.get();
+    heap.clear();
+    model.nearestResponseUnnormalised(aFeatures, affinityFunction, heap);
+    return heap.sortedIndices();
+  }
+
+  protected int[] determineClassCountForkNN(int[] affinitySortedRows) {
+    int numClasses = normalisation.getNumClasses();
     int[] classCount = new int[numClasses];
 
     for (int i = 0; i < kNumNeighbours; i++) {
-      int classIndex = (int) affinitySortedCells.get(i).getClassification();
+      int classIndex = model.getClassification(affinitySortedRows[i]);
       classCount[classIndex]++;
     }
 
     return classCount;
   }
 
+  /**
+   * Safe to call from multiple threads
+   *
+   * @param aInstance
+   * @return the predicted class index
+   */
   public int classifyInstance(Instance aInstance) {
-    // normalise vector
+    // normalise vector into the thread's buffer, the shared filter is never
+    // used after training
+    double[] features;
     try {
-      normaliser.input(aInstance);
+      features = normalisation.normalise(aInstance, featureBuffers.get());
     }
     catch (Exception e) {
       throw new RuntimeException("Unable to classify instance: " + e.getMessage(), e);
     }
-    aInstance = normaliser.output();
 
     // classify
-    return classify(aInstance);
+    return classify(features);
+  }
+
+  /**
+   * Classifies a batch, normalising every instance once and scoring tiles of
+   * instances against blocks of memory cells, so each block is read from
+   * memory once per tile rather than once per instance. The predictions are
+   * the same as those of classifyInstance. Tiles are scored in parallel when
+   * an executor is provided.
+   *
+   * @param aInstances
+   * @param aExecutor runs the tiles, null to score on the calling thread
+   * @return the predicted class index of each instance
+   */
+  public int[] classifyInstances(Instances aInstances, ExecutorService aExecutor) {
+    final double[][] features = new double[aInstances.numInstances()][];
+    try {
+      for (int i = 0; i < features.length; i++) {
+	features[i] = normalisation.normalise(aInstances.instance(i));
+      }
+    }
+    catch (Exception e) {
+      throw new RuntimeException("Unable to classify instances: " + e.getMessage(), e);
+    }
+
+    final int[] predictions = new int[features.length];
+    if (aExecutor == null || features.length <= BATCH_TILE_SIZE) {
+      for (int from = 0; from < features.length; from += BATCH_TILE_SIZE) {
+	classifyTile(features, from, Math.min(from + BATCH_TILE_SIZE, features.length), predictions);
+      }
+      return predictions;
+    }
+
+    // each tile writes its own range of predictions
+    List<Future<Object>> tiles = new ArrayList<Future<Object>>();
+    for (int from = 0; from < features.length; from += BATCH_TILE_SIZE) {
+      final int start = from;
+      final int end = Math.min(from + BATCH_TILE_SIZE, features.length);
+      tiles.add(aExecutor.submit(new Callable<Object>() {
+	public Object call() {
+	  classifyTile(features, start, end, predictions);
+	  return null;
+	}
+      }));
+    }
+    try {
+      for (Future<Object> tile : tiles) {
+	tile.get();
+      }
+    }
+    catch (InterruptedException e) {
+      Utils.cancelAll(tiles);
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while classifying instances.", e);
+    }
+    catch (ExecutionException e) {
+      Utils.cancelAll(tiles);
+      throw new RuntimeException("Failed to classify instances.", e.getCause());
+    }
+    return predictions;
+  }
+
+  /**
+   * @param aFeatures normalised attribute vectors
+   * @param aFrom     first vector of the tile, inclusive
+   * @param aTo       last vector of the tile, exclusive
+   * @param aPredictions receives the predictions of the tile
+   */
+  protected void classifyTile(double[][] aFeatures, int aFrom, int aTo, int[] aPredictions) {
+    if (model.isIndexed()) {
+      // the index already avoids reading most cells
+      for (int i = aFrom; i < aTo; i++) {
+	aPredictions[i] = classify(aFeatures[i]);
+      }
+      return;
+    }
+
+    NeighbourHeap[] heaps = new NeighbourHeap[aTo - aFrom];
+    for (int i = 0; i < heaps.length; i++) {
+      heaps[i] = new NeighbourHeap(kNumNeighbours);
+    }
+    int rowBytes = Math.max(1, model.getNumAttributes() * (model.isSinglePrecision() ? 4 : 8));
+    int blockRows = Math.max(1, BATCH_BLOCK_BYTES / rowBytes);
+    // the heap keeps the best cells whatever order they are offered in
+    for (int block = 0; block < model.size(); block += blockRows) {
+      for (int i = 0; i < heaps.length; i++) {
+	model.nearestResponseUnnormalised(aFeatures[aFrom + i], affinityFunction, block, block + blockRows, heaps[i]);
+      }
+    }
+    for (int i = 0; i < heaps.length; i++) {
+      aPredictions[aFrom + i] = classifyNeighbours(heaps[i].sortedIndices());
+    }
+  }
+
+  /**
+   * Must not modify the model
+   *
+   * @param aFeatures normalised attribute vector
+   * @return the predicted class index
+   */
+  protected int classify(double[] aFeatures) {
+    return classifyNeighbours(selectKNearest(aFeatures));
   }
 
-  protected abstract int classify(Instance aInstance);
+  /**
+   * Must not modify the model
+   *
+   * @param aAffinitySortedRows rows of the k best cells, most similar first
+   * @return the predicted class index
+   */
+  protected abstract int classifyNeighbours(int[] aAffinitySortedRows);
 
 
+  public MinMaxNormalisation getNormalisation() {
+    return normalisation;
+  }
+
   public AffinityFunction getAffinityFunction() {
     return affinityFunction;
   }
@@ -129,7 +313,7 @@ public abstract class AISModelClassifier implements Serializable {
     return kNumNeighbours;
   }
 
-  public CellPool getModel() {
+  public ArrayCellPool getModel() {
     return model;
   }
 }
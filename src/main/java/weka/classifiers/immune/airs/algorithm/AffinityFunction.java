@@ -37,6 +37,14 @@ public class AffinityFunction extends DistanceFunction {
     super(aInstances);
   }
 
+  public AffinityFunction(Instances aInstances, boolean aSpecialise) {
+    super(aInstances, aSpecialise);
+  }
+
+  public AffinityFunction(AffinityFunction aFunction, double[][] aMinMax) {
+    super(aFunction, aMinMax);
+  }
+
   public double affinityNormalised(double[] i1, double[] i2) {
     // single point for adjustment
     return distanceEuclideanNormalised(i1, i2);
@@ -48,6 +56,15 @@ public class AffinityFunction extends DistanceFunction {
   }
 
 
+  public double affinityNormalised(double[] i1, double[] aMatrix, int aOffset) {
+    return distanceEuclideanNormalised(i1, aMatrix, aOffset);
+  }
+
+  public double affinityUnnormalised(double[] i1, double[] aMatrix, int aOffset) {
+    return distanceEuclideanUnnormalised(i1, aMatrix, aOffset);
+  }
+
+
   public double affinityNormalised(Instance i1, Instance i2) {
     return affinityNormalised(i1.toDoubleArray(), i2.toDoubleArray());
   }
@@ -0,0 +1,767 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Created on 17/10/2026
+ *
+ */
+package weka.classifiers.immune.airs.algorithm;
+
+import weka.classifiers.immune.affinity.AttributeDistance;
+import weka.classifiers.immune.affinity.NeighbourHeap;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Type: ArrayCellPool<br>
+ * File: ArrayCellPool.java<br>
+ * Date: 17/10/2026<br>
+ * <br>
+ * Description: Memory cell pool stored as a structure of arrays. The attributes
+ * of all cells live in a single row-major matrix, and the class, affinity,
+ * stimulation, resources and usage of each cell are held in parallel primitive
+ * arrays. A cell is addressed by its row. Deleting a cell moves the last row
+ * into the freed slot, so rows are only stable between deletions. The rows of
+ * each class are also kept in a separate list, so that a query restricted to
+ * one class, such as the best match search of training, only visits the cells
+ * of that class. The pool can optionally maintain a CellKDTree over the rows of
+ * each class to accelerate nearest neighbour queries.
+ * <br>
+ * When serialised, the rows in use are written as one contiguous block of
+ * primitives rather than an array per field, which keeps saved models small
+ * and fast to load. In single precision the attributes are rounded to float
+ * values, nearest cell scans read a float copy of the attribute matrix, which
+ * halves the memory traffic of a scan, and the attributes are saved as floats.
+ * <br>
+ *
+ * @author Jason Brownlee
+ */
+public class ArrayCellPool implements Serializable {
+
+  protected final static int DEFAULT_CAPACITY = 16;
+
+  public final static int ANY_CLASS = -1;
+
+  // bytes per row other than the attributes: class, affinity, stimulation, resources and usage
+  protected final static int ROW_STATE_BYTES = 4 + 8 + 8 + 8 + 8;
+
+  protected final int numAttributes;
+
+  protected final int classIndex;
+
+  // the rows are written by writeObject as a single block
+  protected transient double[] attributes;
+
+  protected transient int[] classes;
+
+  protected transient double[] affinity;
+
+  protected transient double[] stimulation;
+
+  protected transient double[] resources;
+
+  protected transient long[] usage;
+
+  protected int size;
+
+  protected boolean singlePrecision;
+
+  // float copy of the attribute matrix, scanned in its place when present
+  protected transient float[] singleAttributes;
+
+  // rows of each class, derived from classes and rebuilt after deserialisation
+  protected transient int[][] classRows;
+
+  protected transient int[] classSizes;
+
+  // position of each row in the rows of its class
+  protected transient int[] classPosition;
+
+  // attributes the index may split on, null when the pool is not indexed
+  protected boolean[] indexDimensions;
+
+  // one tree per class, null for a class without cells
+  protected transient CellKDTree[] indexes;
+
+  // incremented whenever a cell is removed from a row or moved to another row
+  protected transient int relocations;
+
+
+  public ArrayCellPool(int aNumAttributes, int aClassIndex) {
+    this(aNumAttributes, aClassIndex, DEFAULT_CAPACITY);
+  }
+
+  public ArrayCellPool(int aNumAttributes, int aClassIndex, int aCapacity) {
+    numAttributes = aNumAttributes;
+    classIndex = aClassIndex;
+    aCapacity = Math.max(aCapacity, 1);
+    attributes = new double[aCapacity * numAttributes];
+    classes = new int[aCapacity];
+    affinity = new double[aCapacity];
+    stimulation = new double[aCapacity];
+    resources = new double[aCapacity];
+    usage = new long[aCapacity];
+    classPosition = new int[aCapacity];
+    classRows = new int[0][];
+    classSizes = new int[0];
+  }
+
+  public ArrayCellPool(int aNumAttributes, int aClassIndex, Collection<Cell> aCells) {
+    this(aNumAttributes, aClassIndex, aCells.size());
+    for (Cell c : aCells) {
+      add(c);
+    }
+  }
+
+
+  protected void ensureCapacity(int aCapacity) {
+    int capacity = classes.length;
+    if (aCapacity <= capacity) {
+      return;
+    }
+
+    int newCapacity = Math.max(aCapacity, capacity + (capacity >> 1) + 1);
+    double[] newAttributes = new double[newCapacity * numAttributes];
+    System.arraycopy(attributes, 0, newAttributes, 0, size * numAttributes);
+    attributes = newAttributes;
+    classes = grow(classes, newCapacity);
+    affinity = grow(affinity, newCapacity);
+    stimulation = grow(stimulation, newCapacity);
+    resources = grow(resources, newCapacity);
+    usage = grow(usage, newCapacity);
+    classPosition = grow(classPosition, newCapacity);
+    if (singleAttributes != null) {
+      float[] newSingle = new float[newCapacity * numAttributes];
+      System.arraycopy(singleAttributes, 0, newSingle, 0, size * numAttributes);
+      singleAttributes = newSingle;
+    }
+  }
+
+  private int[] grow(int[] aArray, int aCapacity) {
+    int[] array = new int[aCapacity];
+    System.arraycopy(aArray, 0, array, 0, size);
+    return array;
+  }
+
+  private double[] grow(double[] aArray, int aCapacity) {
+    double[] array = new double[aCapacity];
+    System.arraycopy(aArray, 0, array, 0, size);
+    return array;
+  }
+
+  private long[] grow(long[] aArray, int aCapacity) {
+    long[] array = new long[aCapacity];
+    System.arraycopy(aArray, 0, array, 0, size);
+    return array;
+  }
+
+
+  /**
+   * Copies the provided attribute vector into a new row
+   *
+   * @param aAttributes
+   * @return the row of the new cell
+   */
+  public int add(double[] aAttributes) {
+    ensureCapacity(size + 1);
+    int row = size++;
+    System.arraycopy(aAttributes, 0, attributes, row * numAttributes, numAttributes);
+    if (singleAttributes != null) {
+      storeSingle(row * numAttributes, (row + 1) * numAttributes);
+    }
+    classes[row] = (int) aAttributes[classIndex];
+    affinity[row] = 0.0;
+    stimulation[row] = 0.0;
+    resources[row] = 0.0;
+    usage[row] = 0;
+    addToClass(row);
+    return row;
+  }
+
+  public int add(Cell aCell) {
+    int row = add(aCell.getAttributes());
+    affinity[row] = aCell.getAffinity();
+    stimulation[row] = aCell.getStimulation();
+    resources[row] = aCell.getNumResources();
+    return row;
+  }
+
+  public void add(ArrayCellPool aPool) {
+    if (aPool.numAttributes != numAttributes) {
+      throw new IllegalArgumentException("Cannot combine pools with a different number of attributes.");
+    }
+
+    ensureCapacity(size + aPool.size);
+    System.arraycopy(aPool.attributes, 0, attributes, size * numAttributes, aPool.size * numAttributes);
+    System.arraycopy(aPool.classes, 0, classes, size, aPool.size);
+    System.arraycopy(aPool.affinity, 0, affinity, size, aPool.size);
+    System.arraycopy(aPool.stimulation, 0, stimulation, size, aPool.size);
+    System.arraycopy(aPool.resources, 0, resources, size, aPool.size);
+    System.arraycopy(aPool.usage, 0, usage, size, aPool.size);
+    int first = size;
+    size += aPool.size;
+    if (singleAttributes != null) {
+      storeSingle(first * numAttributes, size * numAttributes);
+    }
+    for (int row = first; row < size; row++) {
+      addToClass(row);
+    }
+  }
+
+  /**
+   * Removes a cell by moving the last row into its place
+   *
+   * @param aRow
+   */
+  public void delete(int aRow) {
+    int last = size - 1;
+    relocations++;
+    removeFromClass(aRow);
+    if (aRow != last) {
+      renumberInClass(last, aRow);
+    }
+    size = last;
+    if (aRow != last) {
+      System.arraycopy(attributes, last * numAttributes, attributes, aRow * numAttributes, numAttributes);
+      if (singleAttributes != null) {
+	System.arraycopy(singleAttributes, last * numAttributes, singleAttributes, aRow * numAttributes, numAttributes);
+      }
+      classes[aRow] = classes[last];
+      affinity[aRow] = affinity[last];
+      stimulation[aRow] = stimulation[last];
+      resources[aRow] = resources[last];
+      usage[aRow] = usage[last];
+    }
+  }
+
+  /**
+   * Removes all cells that have not been used, preserving the order of the
+   * remaining cells
+   *
+   * @return the number of cells removed
+   */
+  public int pruneUnused() {
+    int kept = 0;
+    for (int row = 0; row < size; row++) {
+      if (usage[row] == 0) {
+	continue;
+      }
+      if (kept != row) {
+	System.arraycopy(attributes, row * numAttributes, attributes, kept * numAttributes, numAttributes);
+	if (singleAttributes != null) {
+	  System.arraycopy(singleAttributes, row * numAttributes, singleAttributes, kept * numAttributes, numAttributes);
+	}
+	classes[kept] = classes[row];
+	affinity[kept] = affinity[row];
+	stimulation[kept] = stimulation[row];
+	resources[kept] = resources[row];
+	usage[kept] = usage[row];
+      }
+      kept++;
+    }
+
+    int totalPruned = size - kept;
+    size = kept;
+    if (totalPruned > 0) {
+      relocations++;
+      partition();
+    }
+    return totalPruned;
+  }
+
+
+  protected void addToClass(int aRow) {
+    int c = classes[aRow];
+    if (c >= classRows.length) {
+      int numClasses = c + 1;
+      classRows = Arrays.copyOf(classRows, numClasses);
+      classSizes = Arrays.copyOf(classSizes, numClasses);
+      if (indexes != null) {
+	indexes = Arrays.copyOf(indexes, numClasses);
+      }
+    }
+    if (classRows[c] == null) {
+      classRows[c] = new int[4];
+    }
+    else if (classSizes[c] == classRows[c].length) {
+      classRows[c] = Arrays.copyOf(classRows[c], classSizes[c] * 2);
+    }
+    classPosition[aRow] = classSizes[c];
+    classRows[c][classSizes[c]++] = aRow;
+
+    if (indexes != null) {
+      if (indexes[c] == null) {
+	indexes[c] = new CellKDTree(this, indexDimensions, c);
+      }
+      else {
+	indexes[c].insert(aRow);
+      }
+    }
+  }
+
+  /**
+   * Must be called while the cell is still at the row
+   */
+  protected void removeFromClass(int aRow) {
+    int c = classes[aRow];
+    if (indexes != null) {
+      indexes[c].remove(aRow);
+    }
+    int position = classPosition[aRow];
+    int moved = classRows[c][--classSizes[c]];
+    classRows[c][position] = moved;
+    classPosition[moved] = position;
+  }
+
+  /**
+   * Records that the cell at one row is about to be moved to another
+   */
+  protected void renumberInClass(int aFrom, int aTo) {
+    int c = classes[aFrom];
+    if (indexes != null) {
+      indexes[c].renumber(aFrom, aTo);
+    }
+    classRows[c][classPosition[aFrom]] = aTo;
+    classPosition[aTo] = classPosition[aFrom];
+  }
+
+  /**
+   * Rebuilds the rows of each class, and the index if there is one, from the
+   * classes of the cells
+   */
+  protected void partition() {
+    classRows = new int[0][];
+    classSizes = new int[0];
+    CellKDTree[] previous = indexes;
+    if (indexes != null) {
+      indexes = new CellKDTree[0];
+    }
+    for (int row = 0; row < size; row++) {
+      int c = classes[row];
+      if (c >= classRows.length) {
+	classRows = Arrays.copyOf(classRows, c + 1);
+	classSizes = Arrays.copyOf(classSizes, c + 1);
+      }
+      if (classRows[c] == null) {
+	classRows[c] = new int[4];
+      }
+      else if (classSizes[c] == classRows[c].length) {
+	classRows[c] = Arrays.copyOf(classRows[c], classSizes[c] * 2);
+      }
+      classPosition[row] = classSizes[c];
+      classRows[c][classSizes[c]++] = row;
+    }
+    if (previous != null) {
+      buildIndexes();
+    }
+  }
+
+  protected void buildIndexes() {
+    indexes = new CellKDTree[classRows.length];
+    for (int c = 0; c < indexes.length; c++) {
+      if (classSizes[c] > 0) {
+	indexes[c] = new CellKDTree(this, indexDimensions, c);
+      }
+    }
+  }
+
+  /**
+   * A row read while the count was some value still holds the same cell as
+   * long as the count is unchanged. Adding cells does not change the count.
+   *
+   * @return the number of deletions and prunings performed on the pool
+   */
+  public int getRelocationCount() {
+    return relocations;
+  }
+
+  /**
+   * @param aClassValue
+   * @return the number of cells of the class
+   */
+  public int getClassSize(int aClassValue) {
+    return (aClassValue < classSizes.length) ? classSizes[aClassValue] : 0;
+  }
+
+
+  /**
+   * Builds an index over the numeric attributes of the cells that is kept up
+   * to date as cells are added and removed
+   *
+   * @param aFunction the distance function the pool will be queried with
+   */
+  public void buildIndex(DistanceFunction aFunction) {
+    AttributeDistance[] measures = aFunction.getDistanceMeasures();
+    indexDimensions = new boolean[numAttributes];
+    for (int i = 0; i < numAttributes; i++) {
+      indexDimensions[i] = measures[i].isNumeric() && !measures[i].isClass();
+    }
+    buildIndexes();
+  }
+
+  /**
+   * Rebuilds the index and the single precision attributes after the
+   * attributes of cells have been changed in place
+   */
+  public void reindex() {
+    if (singleAttributes != null) {
+      storeSingle(0, size * numAttributes);
+    }
+    if (indexes != null) {
+      buildIndexes();
+    }
+  }
+
+  public boolean isIndexed() {
+    return indexes != null;
+  }
+
+  /**
+   * Offers the cells of the provided class that may be nearest the vector to
+   * the heap, keyed on normalised affinity. The pool is left untouched.
+   *
+   * @param aFeatures
+   * @param aFunction
+   * @param aClassValue the class of cells to consider, or ANY_CLASS
+   * @param aHeap receives the best cells
+   */
+  public void nearestResponseNormalised(double[] aFeatures, AffinityFunction aFunction, int aClassValue, NeighbourHeap aHeap) {
+    nearestResponse(aFeatures, aFunction, true, aClassValue, aHeap);
+  }
+
+  /**
+   * Offers the cells that may be nearest the vector to the heap, keyed on
+   * unnormalised affinity. The pool is left untouched.
+   *
+   * @param aFeatures
+   * @param aFunction
+   * @param aHeap receives the best cells
+   */
+  public void nearestResponseUnnormalised(double[] aFeatures, AffinityFunction aFunction, NeighbourHeap aHeap) {
+    nearestResponse(aFeatures, aFunction, false, ANY_CLASS, aHeap);
+  }
+
+  protected void nearestResponse(
+    double[] aFeatures,
+    AffinityFunction aFunction,
+    boolean aNormalised,
+    int aClassValue,
+    NeighbourHeap aHeap) {
+    if (aClassValue != ANY_CLASS) {
+      // only the cells of the class are visited, the order of the offers does
+      // not change the result
+      if (aClassValue >= classSizes.length || classSizes[aClassValue] == 0) {
+	return;
+      }
+      if (indexes != null) {
+	indexes[aClassValue].search(aFeatures, aFunction, aNormalised, aHeap);
+      }
+      else {
+	offer(classRows[aClassValue], classSizes[aClassValue], aFeatures, aFunction, aNormalised, aHeap);
+      }
+      return;
+    }
+
+    if (indexes != null) {
+      // the heap carries the bound from one class to the next
+      for (int c = 0; c < indexes.length; c++) {
+	if (indexes[c] != null) {
+	  indexes[c].search(aFeatures, aFunction, aNormalised, aHeap);
+	}
+      }
+      return;
+    }
+
+    scan(aFeatures, aFunction, aNormalised, 0, size, aHeap);
+  }
+
+  /**
+   * Offers the cells of a range of rows that may be nearest the vector to the
+   * heap, keyed on unnormalised affinity. Used to visit the pool in blocks
+   * that stay in cache across a batch of vectors, the heap carries the result
+   * from one block to the next. The index is not used.
+   *
+   * @param aFeatures
+   * @param aFunction
+   * @param aFromRow  first row, inclusive
+   * @param aToRow    last row, exclusive
+   * @param aHeap     receives the best cells
+   */
+  public void nearestResponseUnnormalised(double[] aFeatures, AffinityFunction aFunction, int aFromRow, int aToRow, NeighbourHeap aHeap) {
+    scan(aFeatures, aFunction, false, aFromRow, Math.min(aToRow, size), aHeap);
+  }
+
+  protected void scan(
+    double[] aFeatures,
+    AffinityFunction aFunction,
+    boolean aNormalised,
+    int aFromRow,
+    int aToRow,
+    NeighbourHeap aHeap) {
+    // cells are abandoned once they cannot beat the worst retained cell
+    double bound = aFunction.squaredBound(aHeap.worstDistance(), aNormalised);
+    for (int row = aFromRow, offset = aFromRow * numAttributes; row < aToRow; row++, offset += numAttributes) {
+      double sum = (singleAttributes != null)
+	? aFunction.distanceSquaredBounded(aFeatures, singleAttributes, offset, bound)
+	: aFunction.distanceSquaredBounded(aFeatures, attributes, offset, bound);
+      if (sum <= bound && aHeap.offer(row, aFunction.distanceFromSquared(sum, aNormalised))) {
+	bound = aFunction.squaredBound(aHeap.worstDistance(), aNormalised);
+      }
+    }
+  }
+
+  /**
+   * Offers a subset of rows to the heap, used for the rows of a class and by
+   * the index
+   */
+  protected void offer(
+    int[] aRows,
+    int aCount,
+    double[] aFeatures,
+    AffinityFunction aFunction,
+    boolean aNormalised,
+    NeighbourHeap aHeap) {
+    double bound = aFunction.squaredBound(aHeap.worstDistance(), aNormalised);
+    for (int i = 0; i < aCount; i++) {
+      int row = aRows[i];
+      int offset = row * numAttributes;
+      double sum = (singleAttributes != null)
+	? aFunction.distanceSquaredBounded(aFeatures, singleAttributes, offset, bound)
+	: aFunction.distanceSquaredBounded(aFeatures, attributes, offset, bound);
+      if (sum <= bound && aHeap.offer(row, aFunction.distanceFromSquared(sum, aNormalised))) {
+	bound = aFunction.squaredBound(aHeap.worstDistance(), aNormalised);
+      }
+    }
+  }
+
+  /**
+   * Creates a stand alone copy of a cell, for example to seed an ARB pool
+   *
+   * @param aRow
+   * @return
+   */
+  public Cell toCell(int aRow) {
+    return toCell(aRow, new Cell(new double[numAttributes], classIndex));
+  }
+
+  /**
+   * Copies a row into an existing cell, for example one taken from a CellArena
+   *
+   * @param aRow
+   * @param aCell a cell with the same number of attributes and class index
+   * @return the given cell
+   */
+  public Cell toCell(int aRow, Cell aCell) {
+    System.arraycopy(attributes, aRow * numAttributes, aCell.getAttributes(), 0, numAttributes);
+    aCell.setAffinity(affinity[aRow]);
+    aCell.setStimulation(stimulation[aRow]);
+    aCell.setNumResources(resources[aRow]);
+    return aCell;
+  }
+
+  public double[] copyAttributes(int aRow) {
+    double[] copy = new double[numAttributes];
+    System.arraycopy(attributes, aRow * numAttributes, copy, 0, numAttributes);
+    return copy;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int getNumAttributes() {
+    return numAttributes;
+  }
+
+  public int getClassIndex() {
+    return classIndex;
+  }
+
+  /**
+   * The backing attribute matrix, row-major with getNumAttributes() columns.
+   * Only valid until the next structural change to the pool.
+   *
+   * @return
+   */
+  public double[] getAttributeMatrix() {
+    return attributes;
+  }
+
+  public int getOffset(int aRow) {
+    return aRow * numAttributes;
+  }
+
+  public double getAttribute(int aRow, int aAttribute) {
+    return attributes[aRow * numAttributes + aAttribute];
+  }
+
+  public int getClassification(int aRow) {
+    return classes[aRow];
+  }
+
+  public double getAffinity(int aRow) {
+    return affinity[aRow];
+  }
+
+  public void setAffinity(int aRow, double aAffinity) {
+    affinity[aRow] = aAffinity;
+  }
+
+  public double getStimulation(int aRow) {
+    return stimulation[aRow];
+  }
+
+  public void setStimulation(int aRow, double aStimulation) {
+    stimulation[aRow] = aStimulation;
+  }
+
+  public double getNumResources(int aRow) {
+    return resources[aRow];
+  }
+
+  public void setNumResources(int aRow, double aNumResources) {
+    resources[aRow] = aNumResources;
+  }
+
+  public long getUsage(int aRow) {
+    return usage[aRow];
+  }
+
+  public void incrementUsage(int aRow) {
+    usage[aRow]++;
+  }
+
+  public void addUsage(int aRow, long aUsage) {
+    usage[aRow] += aUsage;
+  }
+
+  public void clearUsage() {
+    for (int row = 0; row < size; row++) {
+      usage[row] = 0;
+    }
+  }
+
+  /**
+   * @param a whether to hold the attributes in single precision, switching it
+   *          on rounds the attributes of every cell to the nearest float
+   */
+  public void setSinglePrecision(boolean a) {
+    singlePrecision = a;
+    singleAttributes = null;
+    if (singlePrecision) {
+      singleAttributes = new float[attributes.length];
+      storeSingle(0, size * numAttributes);
+    }
+  }
+
+  /**
+   * Rounds a range of the attribute matrix to float values and copies them
+   * to the single precision attributes
+   */
+  protected void storeSingle(int aFrom, int aTo) {
+    for (int i = aFrom; i < aTo; i++) {
+      float v = (float) attributes[i];
+      singleAttributes[i] = v;
+      attributes[i] = v;
+    }
+  }
+
+  public boolean isSinglePrecision() {
+    return singlePrecision;
+  }
+
+  private void writeObject(ObjectOutputStream aStream) throws IOException {
+    aStream.defaultWriteObject();
+    int numValues = size * numAttributes;
+    ByteBuffer block = ByteBuffer.allocate(numValues * (singlePrecision ? 4 : 8) + size * ROW_STATE_BYTES);
+    if (singlePrecision) {
+      FloatBuffer values = block.asFloatBuffer();
+      for (int i = 0; i < numValues; i++) {
+	values.put((float) attributes[i]);
+      }
+      block.position(numValues * 4);
+    }
+    else {
+      block.asDoubleBuffer().put(attributes, 0, numValues);
+      block.position(numValues * 8);
+    }
+    block.asIntBuffer().put(classes, 0, size);
+    block.position(block.position() + size * 4);
+    block.asDoubleBuffer().put(affinity, 0, size);
+    block.position(block.position() + size * 8);
+    block.asDoubleBuffer().put(stimulation, 0, size);
+    block.position(block.position() + size * 8);
+    block.asDoubleBuffer().put(resources, 0, size);
+    block.position(block.position() + size * 8);
+    block.asLongBuffer().put(usage, 0, size);
+    aStream.writeObject(block.array());
+  }
+
+  private void readObject(ObjectInputStream aStream) throws IOException, ClassNotFoundException {
+    aStream.defaultReadObject();
+    int capacity = Math.max(size, 1);
+    int numValues = size * numAttributes;
+    attributes = new double[capacity * numAttributes];
+    classes = new int[capacity];
+    affinity = new double[capacity];
+    stimulation = new double[capacity];
+    resources = new double[capacity];
+    usage = new long[capacity];
+
+    ByteBuffer block = ByteBuffer.wrap((byte[]) aStream.readObject());
+    if (singlePrecision) {
+      FloatBuffer values = block.asFloatBuffer();
+      for (int i = 0; i < numValues; i++) {
+	attributes[i] = values.get();
+      }
+      block.position(numValues * 4);
+    }
+    else {
+      block.asDoubleBuffer().get(attributes, 0, numValues);
+      block.position(numValues * 8);
+    }
+    block.asIntBuffer().get(classes, 0, size);
+    block.position(block.position() + size * 4);
+    block.asDoubleBuffer().get(affinity, 0, size);
+    block.position(block.position() + size * 8);
+    block.asDoubleBuffer().get(stimulation, 0, size);
+    block.position(block.position() + size * 8);
+    block.asDoubleBuffer().get(resources, 0, size);
+    block.position(block.position() + size * 8);
+    block.asLongBuffer().get(usage, 0, size);
+    if (singlePrecision) {
+      singleAttributes = new float[attributes.length];
+      storeSingle(0, numValues);
+    }
+
+    // the class rows and index are not serialised, recreate them
+    classPosition = new int[capacity];
+    if (indexDimensions != null) {
+      indexes = new CellKDTree[0];
+    }
+    partition();
+  }
+}
@@ -55,6 +55,12 @@ public class Cell implements Serializable {
    */
   protected double stimulation;
 
+  /**
+   * stimulation by the current antigen before normalisation within the ARB
+   * pool, NaN when it has not been calculated for these attributes
+   */
+  protected double rawStimulation = Double.NaN;
+
 
   public Cell(double[] aAttributes, int aClassIndex) {
     attributes = aAttributes;
@@ -74,6 +80,25 @@ public class Cell implements Serializable {
   }
 
 
+  /**
+   * Reuses this cell as a fresh copy of the given attributes
+   *
+   * @param aAttributes
+   */
+  protected void reset(double[] aAttributes) {
+    System.arraycopy(aAttributes, 0, attributes, 0, attributes.length);
+    clearState();
+  }
+
+  protected void clearState() {
+    usage = 0;
+    affinity = 0.0;
+    numResources = 0.0;
+    stimulation = 0.0;
+    rawStimulation = Double.NaN;
+  }
+
+
   public double getClassification() {
     return attributes[classIndex];
   }
@@ -112,6 +137,14 @@ public class Cell implements Serializable {
     this.stimulation = stimulation;
   }
 
+  protected double getRawStimulation() {
+    return rawStimulation;
+  }
+
+  protected void setRawStimulation(double aRawStimulation) {
+    rawStimulation = aRawStimulation;
+  }
+
   protected long getUsage() {
     return usage;
   }
@@ -0,0 +1,116 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Created on 17/10/2026
+ *
+ */
+package weka.classifiers.immune.airs.algorithm;
+
+import java.util.List;
+
+/**
+ * Type: CellArena<br>
+ * File: CellArena.java<br>
+ * Date: 17/10/2026<br>
+ * <br>
+ * Description: Fixed capacity free list of cells used during ARB refinement.
+ * Culled ARBs are returned to the arena and their attribute buffers are reused
+ * for the next clones, so once the arena is warm the refinement loop does not
+ * allocate. Cells returned when the arena is full are left to the garbage
+ * collector. An arena is not thread safe, each trainer has its own.
+ * <br>
+ *
+ * @author Jason Brownlee
+ */
+public class CellArena {
+
+  protected final int numAttributes;
+
+  protected final int classIndex;
+
+  protected final Cell[] free;
+
+  protected int size;
+
+
+  public CellArena(int aNumAttributes, int aClassIndex, int aCapacity) {
+    numAttributes = aNumAttributes;
+    classIndex = aClassIndex;
+    free = new Cell[aCapacity];
+  }
+
+
+  /**
+   * @return a cell with cleared state, its attributes are to be overwritten
+   */
+  public Cell obtain() {
+    if (size == 0) {
+      return new Cell(new double[numAttributes], classIndex);
+    }
+    Cell c = free[--size];
+    free[size] = null;
+    c.clearState();
+    return c;
+  }
+
+  /**
+   * @param aCell
+   * @return a cell with a copy of the attributes of the given cell and all
+   * other state cleared, the same as new Cell(aCell)
+   */
+  public Cell obtain(Cell aCell) {
+    if (size == 0 || !fits(aCell)) {
+      return new Cell(aCell);
+    }
+    Cell c = free[--size];
+    free[size] = null;
+    c.reset(aCell.getAttributes());
+    return c;
+  }
+
+  /**
+   * @param aCell a cell that is no longer referenced by the caller
+   */
+  public void recycle(Cell aCell) {
+    if (size < free.length && fits(aCell)) {
+      free[size++] = aCell;
+    }
+  }
+
+  /**
+   * Recycles every cell of the list and clears it
+   *
+   * @param aCells
+   */
+  public void recycle(List<Cell> aCells) {
+    for (int i = 0; i < aCells.size(); i++) {
+      recycle(aCells.get(i));
+    }
+    aCells.clear();
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int capacity() {
+    return free.length;
+  }
+
+  protected boolean fits(Cell aCell) {
+    return aCell.getAttributes().length == numAttributes && aCell.getClassIndex() == classIndex;
+  }
+}
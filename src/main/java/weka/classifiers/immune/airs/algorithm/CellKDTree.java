@@ -0,0 +1,362 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Created on 17/10/2026
+ *
+ */
+package weka.classifiers.immune.airs.algorithm;
+
+import weka.classifiers.immune.affinity.NeighbourHeap;
+
+import java.util.Arrays;
+
+/**
+ * Type: CellKDTree<br>
+ * File: CellKDTree.java<br>
+ * Date: 17/10/2026<br>
+ * <br>
+ * Description: Exact KD-tree over the rows of one class of an ArrayCellPool,
+ * the pool keeps one tree per class. Only numeric
+ * attributes are used to split the space; nominal attributes and missing values
+ * are handled by the distance function when a cell is visited. A cell with a
+ * missing value on the split attribute of a node is kept at that node and is
+ * always visited. A subtree is skipped only when the gap on the split attribute
+ * alone is strictly larger than the worst distance retained so far, so the
+ * result, including the lower-row tie break, matches a linear scan.
+ * <br>
+ *
+ * @author Jason Brownlee
+ */
+public class CellKDTree {
+
+  protected final static int LEAF_SIZE = 24;
+
+  protected final ArrayCellPool pool;
+
+  protected final boolean[] splittable;
+
+  protected final int classValue;
+
+  protected Node root;
+
+  protected int deepest;
+
+  protected int depthLimit;
+
+
+  /**
+   * @param aPool       the pool to index, the tree reads the pool's arrays directly
+   * @param aSplittable attributes that may be used to split the space
+   * @param aClassValue the class whose rows are indexed
+   */
+  public CellKDTree(ArrayCellPool aPool, boolean[] aSplittable, int aClassValue) {
+    pool = aPool;
+    splittable = aSplittable;
+    classValue = aClassValue;
+    rebuild();
+  }
+
+
+  /**
+   * Discards the tree and builds a balanced one over all rows of the class
+   */
+  public void rebuild() {
+    int[] rows = Arrays.copyOf(pool.classRows[classValue], pool.classSizes[classValue]);
+    deepest = 0;
+    root = new Node();
+    build(root, rows, 0, rows.length, 0);
+    // allow some imbalance from incremental splits before rebuilding
+    int balanced = 32 - Integer.numberOfLeadingZeros(rows.length / LEAF_SIZE + 1);
+    depthLimit = Math.max(2 * balanced + 8, 2 * deepest);
+  }
+
+  /**
+   * Indexes a row that has just been added to the pool
+   *
+   * @param aRow
+   */
+  public void insert(int aRow) {
+    double[] matrix = pool.attributes;
+    int offset = aRow * pool.numAttributes;
+    Node node = root;
+    int depth = 0;
+    while (node.dimension != -1) {
+      double v = matrix[offset + node.dimension];
+      if (weka.core.Utils.isMissingValue(v)) {
+	node.add(aRow);
+	return;
+      }
+      node = (v < node.split) ? node.left : node.right;
+      depth++;
+    }
+
+    node.add(aRow);
+    if (node.count > LEAF_SIZE && node.count >= 2 * node.failedSplit) {
+      if (depth + 1 > depthLimit) {
+	rebuild();
+      }
+      else {
+	int[] rows = Arrays.copyOf(node.rows, node.count);
+	build(node, rows, 0, rows.length, depth);
+      }
+    }
+  }
+
+  /**
+   * Removes a row, must be called before the pool overwrites the row
+   *
+   * @param aRow
+   */
+  public void remove(int aRow) {
+    locate(aRow).remove(aRow);
+  }
+
+  /**
+   * Records that the cell at one row is about to be moved to another, must be
+   * called while the cell is still at the old row
+   *
+   * @param aFrom
+   * @param aTo
+   */
+  public void renumber(int aFrom, int aTo) {
+    locate(aFrom).replace(aFrom, aTo);
+  }
+
+  /**
+   * Offers every cell that may be among the heap's nearest to the heap
+   *
+   * @param aFeatures
+   * @param aFunction
+   * @param aNormalised whether to use normalised affinity
+   * @param aHeap
+   */
+  public void search(
+    double[] aFeatures,
+    AffinityFunction aFunction,
+    boolean aNormalised,
+    NeighbourHeap aHeap) {
+    search(root, aFeatures, aFunction, aNormalised, aHeap);
+  }
+
+
+  protected void search(
+    Node aNode,
+    double[] aFeatures,
+    AffinityFunction aFunction,
+    boolean aNormalised,
+    NeighbourHeap aHeap) {
+    pool.offer(aNode.rows, aNode.count, aFeatures, aFunction, aNormalised, aHeap);
+    if (aNode.dimension == -1) {
+      return;
+    }
+
+    double v = aFeatures[aNode.dimension];
+    if (weka.core.Utils.isMissingValue(v)) {
+      // no bound on either side
+      search(aNode.left, aFeatures, aFunction, aNormalised, aHeap);
+      search(aNode.right, aFeatures, aFunction, aNormalised, aHeap);
+      return;
+    }
+
+    double diff = v - aNode.split;
+    Node near = (diff < 0) ? aNode.left : aNode.right;
+    Node far = (diff < 0) ? aNode.right : aNode.left;
+    search(near, aFeatures, aFunction, aNormalised, aHeap);
+
+    // every cell on the far side contributes at least diff^2 to the sum
+    double bound = Math.sqrt(diff * diff);
+    if (aNormalised) {
+      bound = aFunction.normaliseDistance(bound);
+    }
+    if (!(bound > aHeap.worstDistance())) {
+      search(far, aFeatures, aFunction, aNormalised, aHeap);
+    }
+  }
+
+  protected Node locate(int aRow) {
+    double[] matrix = pool.attributes;
+    int offset = aRow * pool.numAttributes;
+    Node node = root;
+    while (node.dimension != -1) {
+      double v = matrix[offset + node.dimension];
+      if (weka.core.Utils.isMissingValue(v)) {
+	break;
+      }
+      node = (v < node.split) ? node.left : node.right;
+    }
+    return node;
+  }
+
+  protected void build(Node aNode, int[] aRows, int aFrom, int aTo, int aDepth) {
+    aNode.dimension = -1;
+    aNode.left = null;
+    aNode.right = null;
+    aNode.failedSplit = 0;
+    deepest = Math.max(deepest, aDepth);
+
+    int count = aTo - aFrom;
+    int dimension = (count > LEAF_SIZE) ? widestDimension(aRows, aFrom, aTo) : -1;
+    if (dimension == -1) {
+      aNode.setRows(aRows, aFrom, aTo);
+      if (count > LEAF_SIZE) {
+	// all cells coincide on the split attributes
+	aNode.failedSplit = count;
+      }
+      return;
+    }
+
+    double split = splitValue(aRows, aFrom, aTo, dimension);
+    // order the rows as: missing, below the split, at or above the split
+    double[] matrix = pool.attributes;
+    int numAttributes = pool.numAttributes;
+    int missingEnd = aFrom;
+    for (int i = aFrom; i < aTo; i++) {
+      if (weka.core.Utils.isMissingValue(matrix[aRows[i] * numAttributes + dimension])) {
+	swap(aRows, i, missingEnd++);
+      }
+    }
+    int leftEnd = missingEnd;
+    for (int i = missingEnd; i < aTo; i++) {
+      if (matrix[aRows[i] * numAttributes + dimension] < split) {
+	swap(aRows, i, leftEnd++);
+      }
+    }
+
+    aNode.dimension = dimension;
+    aNode.split = split;
+    aNode.setRows(aRows, aFrom, missingEnd);
+    aNode.left = new Node();
+    aNode.right = new Node();
+    build(aNode.left, aRows, missingEnd, leftEnd, aDepth + 1);
+    build(aNode.right, aRows, leftEnd, aTo, aDepth + 1);
+  }
+
+  /**
+   * @return the splittable attribute with the largest range, or -1 if all
+   * ranges are zero
+   */
+  protected int widestDimension(int[] aRows, int aFrom, int aTo) {
+    double[] matrix = pool.attributes;
+    int numAttributes = pool.numAttributes;
+    int best = -1;
+    double bestRange = 0.0;
+    for (int j = 0; j < splittable.length; j++) {
+      if (!splittable[j]) {
+	continue;
+      }
+      double min = Double.POSITIVE_INFINITY;
+      double max = Double.NEGATIVE_INFINITY;
+      for (int i = aFrom; i < aTo; i++) {
+	double v = matrix[aRows[i] * numAttributes + j];
+	if (!weka.core.Utils.isMissingValue(v)) {
+	  if (v < min) {
+	    min = v;
+	  }
+	  if (v > max) {
+	    max = v;
+	  }
+	}
+      }
+      double range = max - min;
+      if (range > bestRange) {
+	best = j;
+	bestRange = range;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * The median value, raised to the next distinct value if required so that
+   * both sides of the split are non-empty
+   */
+  protected double splitValue(int[] aRows, int aFrom, int aTo, int aDimension) {
+    double[] matrix = pool.attributes;
+    int numAttributes = pool.numAttributes;
+    double[] values = new double[aTo - aFrom];
+    int count = 0;
+    for (int i = aFrom; i < aTo; i++) {
+      double v = matrix[aRows[i] * numAttributes + aDimension];
+      if (!weka.core.Utils.isMissingValue(v)) {
+	values[count++] = v;
+      }
+    }
+    Arrays.sort(values, 0, count);
+
+    int median = count / 2;
+    while (values[median] == values[0]) {
+      median++;
+    }
+    return values[median];
+  }
+
+  private static void swap(int[] aRows, int i, int j) {
+    int row = aRows[i];
+    aRows[i] = aRows[j];
+    aRows[j] = row;
+  }
+
+
+  protected final static class Node {
+
+    protected int dimension = -1;
+
+    protected double split;
+
+    protected Node left;
+
+    protected Node right;
+
+    // leaf cells, or cells missing the split attribute of an internal node
+    protected int[] rows = new int[4];
+
+    protected int count;
+
+    // leaf size at the last split that found no usable attribute
+    protected int failedSplit;
+
+
+    protected void setRows(int[] aRows, int aFrom, int aTo) {
+      count = aTo - aFrom;
+      rows = new int[Math.max(count, 4)];
+      System.arraycopy(aRows, aFrom, rows, 0, count);
+    }
+
+    protected void add(int aRow) {
+      if (count == rows.length) {
+	rows = Arrays.copyOf(rows, count + (count >> 1) + 1);
+      }
+      rows[count++] = aRow;
+    }
+
+    protected void remove(int aRow) {
+      rows[indexOf(aRow)] = rows[--count];
+    }
+
+    protected void replace(int aFrom, int aTo) {
+      rows[indexOf(aFrom)] = aTo;
+    }
+
+    protected int indexOf(int aRow) {
+      for (int i = 0; i < count; i++) {
+	if (rows[i] == aRow) {
+	  return i;
+	}
+      }
+      throw new IllegalStateException("Row " + aRow + " is not in the index.");
+    }
+  }
+}
@@ -24,8 +24,9 @@ import weka.core.Instance;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 
 /**
  * Type: AISModel
@@ -45,15 +46,27 @@ public class CellPool implements Serializable {
   public final static ResourceComparator resourceComparator = new ResourceComparator();
 
 
-  protected final LinkedList<Cell> cells;
+  // array backed so that sorting is in place and adding does not allocate
+  protected final ArrayList<Cell> cells;
 
+  // scratch space for retainMostResources, grown on demand
+  protected transient int[] order;
 
-  public CellPool(LinkedList<Cell> aCells) {
-    cells = aCells;
+  protected transient double[] keys;
+
+  protected transient boolean[] retained;
+
+
+  public CellPool() {
+    cells = new ArrayList<Cell>();
+  }
+
+  public CellPool(List<Cell> aCells) {
+    cells = new ArrayList<Cell>(aCells);
   }
 
 
-  public LinkedList<Cell> affinityResponseNormalised(Instance aInstance, AffinityFunction affinity) {
+  public List<Cell> affinityResponseNormalised(Instance aInstance, AffinityFunction affinity) {
     // calculate affinity for all cells
     double[] features = aInstance.toDoubleArray();
     for (Cell c : cells) {
@@ -66,7 +79,7 @@ public class CellPool implements Serializable {
     return cells;
   }
 
-  public LinkedList<Cell> affinityResponseUnnormalised(Instance aInstance, AffinityFunction affinity) {
+  public List<Cell> affinityResponseUnnormalised(Instance aInstance, AffinityFunction affinity) {
     // calculate affinity for all cells
     double[] features = aInstance.toDoubleArray();
     for (Cell c : cells) {
@@ -79,7 +92,7 @@ public class CellPool implements Serializable {
     return cells;
   }
 
-  public LinkedList<Cell> resourceResponse() {
+  public List<Cell> resourceResponse() {
     // sort by resources
     Collections.sort(cells, resourceComparator);
     return cells;
@@ -160,7 +173,7 @@ public class CellPool implements Serializable {
   }
 
 
-  public void add(LinkedList<Cell> aNewList) {
+  public void add(List<Cell> aNewList) {
     cells.addAll(aNewList);
   }
 
@@ -172,6 +185,22 @@ public class CellPool implements Serializable {
     cells.remove(aCell);
   }
 
+  public Cell get(int aIndex) {
+    return cells.get(aIndex);
+  }
+
+  public Cell getFirst() {
+    return cells.get(0);
+  }
+
+  public Cell getLast() {
+    return cells.get(cells.size() - 1);
+  }
+
+  public Cell removeLast() {
+    return cells.remove(cells.size() - 1);
+  }
+
   public boolean isEmpty() {
     return cells.isEmpty();
   }
@@ -181,7 +210,7 @@ public class CellPool implements Serializable {
   }
 
 
-  public LinkedList<Cell> getCells() {
+  public List<Cell> getCells() {
     return cells;
   }
 
@@ -193,6 +222,115 @@ public class CellPool implements Serializable {
     Collections.sort(cells, resourceComparator);
   }
 
+  /**
+   * Same result as orderByResources() followed by removing cells from the end
+   * for as long as the cells before them hold at least the allowance. The
+   * cells to keep are found by selection in O(n) and only they are sorted, so
+   * the cost does not grow with the number of cells removed.
+   *
+   * @param aAllowed  resources to keep
+   * @param aRemoved  receives the removed cells, in no particular order
+   * @return the total resources of the kept cells
+   */
+  public double retainMostResources(double aAllowed, List<Cell> aRemoved) {
+    int n = cells.size();
+    if (order == null || order.length < n) {
+      order = new int[n];
+      keys = new double[n];
+      retained = new boolean[n];
+    }
+    double total = 0.0;
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+      keys[i] = cells.get(i).numResources;
+      total += keys[i];
+    }
+    if (total <= aAllowed) {
+      orderByResources();
+      return total;
+    }
+
+    // the kept cells are the shortest prefix of the ordering that reaches the
+    // allowance, order[0..lo) is known to be kept and sum(order[lo..hi)) is
+    // at least the allowance still needed
+    int lo = 0;
+    int hi = n;
+    double needed = aAllowed;
+    int kept = n;
+    while (lo < hi) {
+      int p = partition(lo, hi, lo + (hi - lo) / 2);
+      double better = 0.0;
+      for (int i = lo; i < p; i++) {
+	better += keys[order[i]];
+      }
+      if (better >= needed) {
+	hi = p;
+      }
+      else if (better + keys[order[p]] >= needed) {
+	kept = p + 1;
+	break;
+      }
+      else {
+	needed -= better + keys[order[p]];
+	lo = p + 1;
+      }
+    }
+
+    for (int i = 0; i < n; i++) {
+      retained[i] = false;
+    }
+    for (int i = 0; i < kept; i++) {
+      retained[order[i]] = true;
+    }
+    // kept cells stay in their current order before the stable sort
+    int next = 0;
+    for (int i = 0; i < n; i++) {
+      Cell c = cells.get(i);
+      if (retained[i]) {
+	cells.set(next++, c);
+      }
+      else {
+	aRemoved.add(c);
+      }
+    }
+    for (int i = n - 1; i >= kept; i--) {
+      cells.remove(i);
+    }
+    orderByResources();
+
+    double resources = 0.0;
+    for (int i = 0; i < cells.size(); i++) {
+      resources += cells.get(i).numResources;
+    }
+    return resources;
+  }
+
+  /**
+   * Partitions order[aFrom..aTo) about the pivot, most resources first with
+   * equal resources by position, as orderByResources() would place them
+   *
+   * @return the final position of the pivot
+   */
+  protected int partition(int aFrom, int aTo, int aPivot) {
+    swap(aPivot, aTo - 1);
+    int pivot = order[aTo - 1];
+    int store = aFrom;
+    for (int i = aFrom; i < aTo - 1; i++) {
+      int c = order[i];
+      if (keys[c] > keys[pivot] || (keys[c] == keys[pivot] && c < pivot)) {
+	swap(i, store++);
+      }
+    }
+    swap(store, aTo - 1);
+    return store;
+  }
+
+  private void swap(int i, int j) {
+    int tmp = order[i];
+    order[i] = order[j];
+    order[j] = tmp;
+  }
+
   public void orderByStimulation() {
     Collections.sort(cells, stimulationComparator);
   }
@@ -20,9 +20,11 @@
 package weka.classifiers.immune.airs.algorithm;
 
 import weka.classifiers.immune.affinity.AttributeDistance;
+import weka.classifiers.immune.affinity.AttributeOrdering;
 import weka.classifiers.immune.affinity.ClassAttributeDistance;
 import weka.classifiers.immune.affinity.NominalAttributeDistance;
 import weka.classifiers.immune.affinity.NumericAttributeDistance;
+import weka.classifiers.immune.affinity.NumericDistanceKernel;
 import weka.classifiers.immune.affinity.UnsupportedAttributeDistance;
 import weka.core.Attribute;
 import weka.core.Instances;
@@ -40,6 +42,8 @@ import java.io.Serializable;
  */
 public class DistanceFunction implements Serializable {
 
+  protected final static double BOUND_SLACK = 1.0 + 1e-9;
+
   protected final AttributeDistance[] distanceMeasures;
 
   protected final int classIndex;
@@ -48,8 +52,23 @@ public class DistanceFunction implements Serializable {
 
   protected final double[][] minmax;
 
+  // specialised path for all numeric data, null for the generic path
+  protected final NumericDistanceKernel numericKernel;
+
+  // order in which attributes are summed, null for the natural order
+  protected int[] order;
+
 
   public DistanceFunction(Instances aInstances) {
+    this(aInstances, true);
+  }
+
+  /**
+   * @param aInstances
+   * @param aSpecialise whether to use the all numeric kernel when the data
+   *                    allows it, false always uses the per attribute measures
+   */
+  public DistanceFunction(Instances aInstances, boolean aSpecialise) {
     int numAttributes = aInstances.numAttributes();
     distanceMeasures = new AttributeDistance[numAttributes];
     classIndex = aInstances.classIndex();
@@ -58,13 +77,33 @@ public class DistanceFunction implements Serializable {
 
     // calculate the maximum distance
     minmax = calculateMinMax(aInstances);
+    maxDistance = calculateMaxDistance(minmax);
+    numericKernel = aSpecialise ? NumericDistanceKernel.create(distanceMeasures, aInstances) : null;
+  }
 
+  /**
+   * Same attribute measures, with the maximum distance recalculated for new
+   * attribute bounds, for example after the bounds of incremental training
+   * have been widened
+   *
+   * @param aFunction
+   * @param aMinMax
+   */
+  public DistanceFunction(DistanceFunction aFunction, double[][] aMinMax) {
+    distanceMeasures = aFunction.distanceMeasures;
+    classIndex = aFunction.classIndex;
+    minmax = aMinMax;
+    maxDistance = calculateMaxDistance(minmax);
+    numericKernel = aFunction.numericKernel;
+    order = aFunction.order;
+  }
+
+  protected double calculateMaxDistance(double[][] aMinMax) {
     // sum the squared ranges
     double sum = 0.0;
-    for (int i = 0; i < aInstances.numAttributes(); i++) {
-      Attribute a = aInstances.attribute(i);
-      if (a.type() == Attribute.NUMERIC) {
-	double range = (minmax[i][1] - minmax[i][0]);
+    for (int i = 0; i < distanceMeasures.length; i++) {
+      if (distanceMeasures[i].isNumeric()) {
+	double range = (aMinMax[i][1] - aMinMax[i][0]);
 	sum += (range * range);
       }
       else // non-numeric such as nominal
@@ -73,7 +112,7 @@ public class DistanceFunction implements Serializable {
       }
     }
 
-    maxDistance = Math.sqrt(sum);
+    return Math.sqrt(sum);
   }
 
   protected double[][] calculateMinMax(Instances aInstances) {
@@ -105,6 +144,22 @@ public class DistanceFunction implements Serializable {
     return minmax;
   }
 
+  public AttributeDistance[] getDistanceMeasures() {
+    return distanceMeasures;
+  }
+
+  /**
+   * Sums the attributes in order of decreasing expected contribution to the
+   * distance, so that a bounded distance is abandoned sooner. The changed
+   * summation order may alter distances in the last bits. Must be called
+   * before the function is shared.
+   *
+   * @param aInstances
+   */
+  public void orderByVariance(Instances aInstances) {
+    order = AttributeOrdering.byExpectedContribution(distanceMeasures, aInstances);
+  }
+
   public void prepareDistanceMeasures(Instances aInstances) {
     for (int i = 0; i < distanceMeasures.length; i++) {
       if (i == classIndex) {
@@ -143,22 +198,137 @@ public class DistanceFunction implements Serializable {
     return calculateDistance(i1, i2);
   }
 
+  /**
+   * Distance to a vector stored in a row-major matrix, such as the attribute
+   * matrix of an ArrayCellPool
+   *
+   * @param i1
+   * @param aMatrix
+   * @param aOffset first element of the row in the matrix
+   * @return
+   */
+  public double distanceEuclideanNormalised(double[] i1, double[] aMatrix, int aOffset) {
+    double distance = calculateDistance(i1, aMatrix, aOffset);
+    return normaliseDistance(distance);
+  }
+
+  public double distanceEuclideanUnnormalised(double[] i1, double[] aMatrix, int aOffset) {
+    return calculateDistance(i1, aMatrix, aOffset);
+  }
+
   protected double calculateDistance(double[] i1, double[] i2) {
+    return calculateDistance(i1, i2, 0);
+  }
+
+  protected double calculateDistance(double[] i1, double[] aMatrix, int aOffset) {
+    double sum = distanceSquaredBounded(i1, aMatrix, aOffset, Double.POSITIVE_INFINITY);
+    // square root
+    double distance = Math.sqrt(sum);
+    return distance;
+  }
+
+  /**
+   * Squared unnormalised distance that stops summing once the partial sum
+   * exceeds the bound, for searches that only need the nearest vectors
+   *
+   * @param i1
+   * @param aMatrix
+   * @param aOffset first element of the row in the matrix
+   * @param aBound  see squaredBound()
+   * @return the squared distance, or a partial sum greater than the bound
+   */
+  public double distanceSquaredBounded(double[] i1, double[] aMatrix, int aOffset, double aBound) {
+    double sum = Double.NaN;
+    if (numericKernel != null) {
+      sum = numericKernel.sumSquares(i1, aMatrix, aOffset, order, aBound);
+    }
+    // generic path, also taken when the kernel meets a missing value
+    if (Double.isNaN(sum)) {
+      sum = sumSquares(i1, aMatrix, aOffset, aBound);
+    }
+    return sum;
+  }
+
+  /**
+   * As above for a row of a matrix held in single precision, such as the
+   * single precision attributes of an ArrayCellPool
+   *
+   * @param i1
+   * @param aMatrix
+   * @param aOffset first element of the row in the matrix
+   * @param aBound  see squaredBound()
+   * @return the squared distance, or a partial sum greater than the bound
+   */
+  public double distanceSquaredBounded(double[] i1, float[] aMatrix, int aOffset, double aBound) {
+    double sum = Double.NaN;
+    if (numericKernel != null) {
+      sum = numericKernel.sumSquares(i1, aMatrix, aOffset, order, aBound);
+    }
+    // generic path, also taken when the kernel meets a missing value
+    if (Double.isNaN(sum)) {
+      sum = sumSquares(i1, aMatrix, aOffset, aBound);
+    }
+    return sum;
+  }
+
+  /**
+   * @param aDistance   the worst distance of interest
+   * @param aNormalised whether the distance is normalised
+   * @return the bound on the squared distance, widened slightly so that
+   * rounding never abandons a vector at exactly the given distance
+   */
+  public double squaredBound(double aDistance, boolean aNormalised) {
+    double d = aNormalised ? (aDistance * maxDistance) : aDistance;
+    double bound = d * d * BOUND_SLACK;
+    if (!(bound < Double.POSITIVE_INFINITY)) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return bound;
+  }
+
+  /**
+   * @param aSquared    a complete squared distance
+   * @param aNormalised
+   * @return the same value as the normalised or unnormalised distance methods
+   */
+  public double distanceFromSquared(double aSquared, boolean aNormalised) {
+    double distance = Math.sqrt(aSquared);
+    return aNormalised ? normaliseDistance(distance) : distance;
+  }
+
+  protected double sumSquares(double[] i1, double[] aMatrix, int aOffset, double aBound) {
     // sum the squares
     double sum = 0.0;
-    for (int i = 0; i < distanceMeasures.length; i++) {
+    int count = (order == null) ? distanceMeasures.length : order.length;
+    for (int k = 0; k < count && sum <= aBound; k++) {
+      int i = (order == null) ? k : order[k];
+      double v2 = aMatrix[aOffset + i];
       // check for empty value
       if (weka.core.Utils.isMissingValue(i1[i]) ||
-	weka.core.Utils.isMissingValue(i2[i])) {
+	weka.core.Utils.isMissingValue(v2)) {
 	// never attempt to compare missing values
 	continue;
       }
 
-      sum += distanceMeasures[i].distance(i1[i], i2[i]);
+      sum += distanceMeasures[i].distance(i1[i], v2);
     }
-    // square root
-    double distance = Math.sqrt(sum);
-    return distance;
+    return sum;
+  }
+
+  protected double sumSquares(double[] i1, float[] aMatrix, int aOffset, double aBound) {
+    double sum = 0.0;
+    int count = (order == null) ? distanceMeasures.length : order.length;
+    for (int k = 0; k < count && sum <= aBound; k++) {
+      int i = (order == null) ? k : order[k];
+      double v2 = aMatrix[aOffset + i];
+      if (weka.core.Utils.isMissingValue(i1[i]) ||
+	weka.core.Utils.isMissingValue(v2)) {
+	continue;
+      }
+
+      sum += distanceMeasures[i].distance(i1[i], v2);
+    }
+    return sum;
   }
 
   protected double normaliseDistance(double aDistance) {
@@ -22,8 +22,6 @@ package weka.classifiers.immune.airs.algorithm;
 import weka.core.Instances;
 import weka.filters.unsupervised.attribute.Normalize;
 
-import java.util.LinkedList;
-
 
 /**
  * Type: MemoryCellMerger<br>
@@ -38,7 +36,7 @@ import java.util.LinkedList;
 public interface MemoryCellMerger {
 
   AISModelClassifier mergeMemoryCells(
-    LinkedList<Cell>[] cells,
+    ArrayCellPool[] pools,
     int aKNN,
     Normalize aNormalise,
     AffinityFunction aFunction,
@@ -0,0 +1,213 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Created on 17/10/2026
+ *
+ */
+package weka.classifiers.immune.airs.algorithm;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.filters.unsupervised.attribute.Normalize;
+
+import java.io.Serializable;
+
+/**
+ * Type: MinMaxNormalisation<br>
+ * File: MinMaxNormalisation.java<br>
+ * Date: 17/10/2026<br>
+ * <br>
+ * Description: Immutable copy of the bounds learned by a trained Normalize
+ * filter. Produces the same values as pushing an instance through the filter,
+ * without the filter's queue, so it can be shared by any number of threads.
+ * The range of each attribute is computed once, when the bounds are set.
+ * Incremental training widens the bounds by creating a new instance.
+ * <br>
+ *
+ * @author Jason Brownlee
+ */
+public class MinMaxNormalisation implements Serializable {
+
+  protected final double[] min;
+
+  protected final double[] max;
+
+  protected final boolean[] normalise;
+
+  // max - min of each attribute, zero where the attribute has no range
+  protected final double[] range;
+
+  protected final double scale;
+
+  protected final double translation;
+
+  protected final int numClasses;
+
+
+  /**
+   * @param aNormalise a filter that has processed its first batch
+   */
+  public MinMaxNormalisation(Normalize aNormalise) {
+    Instances format = aNormalise.getOutputFormat();
+    double[] minArray = aNormalise.getMinArray();
+    double[] maxArray = aNormalise.getMaxArray();
+    if (format == null || minArray == null) {
+      throw new IllegalStateException("The normalisation filter has not been trained.");
+    }
+
+    int numAttributes = format.numAttributes();
+    min = new double[numAttributes];
+    max = new double[numAttributes];
+    normalise = new boolean[numAttributes];
+    System.arraycopy(minArray, 0, min, 0, numAttributes);
+    System.arraycopy(maxArray, 0, max, 0, numAttributes);
+    for (int i = 0; i < numAttributes; i++) {
+      normalise[i] = format.attribute(i).isNumeric() && (format.classIndex() != i);
+    }
+    range = ranges(min, max);
+    scale = aNormalise.getScale();
+    translation = aNormalise.getTranslation();
+    numClasses = format.numClasses();
+  }
+
+  protected MinMaxNormalisation(MinMaxNormalisation aOther, double[] aMin, double[] aMax) {
+    min = aMin;
+    max = aMax;
+    normalise = aOther.normalise;
+    range = ranges(aMin, aMax);
+    scale = aOther.scale;
+    translation = aOther.translation;
+    numClasses = aOther.numClasses;
+  }
+
+
+  protected static double[] ranges(double[] aMin, double[] aMax) {
+    double[] range = new double[aMin.length];
+    for (int j = 0; j < range.length; j++) {
+      if (!Double.isNaN(aMin[j]) && aMax[j] != aMin[j]) {
+	range[j] = aMax[j] - aMin[j];
+      }
+    }
+    return range;
+  }
+
+
+  /**
+   * @param aInstance
+   * @return a new normalised attribute vector
+   */
+  public double[] normalise(Instance aInstance) {
+    return normalise(aInstance, new double[normalise.length]);
+  }
+
+  /**
+   * Normalises into a vector provided by the caller, the instance is read in
+   * place and nothing is allocated
+   *
+   * @param aInstance
+   * @param aFeatures receives the normalised attribute vector
+   * @return aFeatures
+   */
+  public double[] normalise(Instance aInstance, double[] aFeatures) {
+    for (int j = 0; j < normalise.length; j++) {
+      double v = aInstance.value(j);
+      if (normalise[j] && !weka.core.Utils.isMissingValue(v)) {
+	v = normalise(j, v);
+	if (Double.isNaN(v)) {
+	  throw new IllegalArgumentException("A NaN value was generated while normalizing " + aInstance.attribute(j).name());
+	}
+      }
+      aFeatures[j] = v;
+    }
+    return aFeatures;
+  }
+
+  protected double normalise(int aAttribute, double aValue) {
+    if (range[aAttribute] == 0) {
+      return 0;
+    }
+    return (aValue - min[aAttribute]) / range[aAttribute] * scale + translation;
+  }
+
+  /**
+   * @param aInstance
+   * @return bounds widened to include the instance, or this object if the
+   * instance is already within the bounds
+   */
+  public MinMaxNormalisation expand(Instance aInstance) {
+    double[] newMin = null;
+    double[] newMax = null;
+    for (int j = 0; j < normalise.length; j++) {
+      double v = aInstance.value(j);
+      if (!normalise[j] || weka.core.Utils.isMissingValue(v)) {
+	continue;
+      }
+      if (Double.isNaN(min[j]) || v < min[j] || v > max[j]) {
+	if (newMin == null) {
+	  newMin = min.clone();
+	  newMax = max.clone();
+	}
+	newMin[j] = Double.isNaN(min[j]) ? v : Math.min(min[j], v);
+	newMax[j] = Double.isNaN(max[j]) ? v : Math.max(max[j], v);
+      }
+    }
+
+    if (newMin == null) {
+      return this;
+    }
+    return new MinMaxNormalisation(this, newMin, newMax);
+  }
+
+  /**
+   * Converts a vector normalised with the previous bounds to these bounds, in
+   * place. A value of an attribute that previously had no range maps to the
+   * single value observed.
+   *
+   * @param aMatrix
+   * @param aOffset first element of the vector in the matrix
+   * @param aPrevious
+   */
+  public void renormalise(double[] aMatrix, int aOffset, MinMaxNormalisation aPrevious) {
+    for (int j = 0; j < normalise.length; j++) {
+      double x = aMatrix[aOffset + j];
+      if (!normalise[j] || weka.core.Utils.isMissingValue(x) || Double.isNaN(aPrevious.min[j])) {
+	continue;
+      }
+      double v = aPrevious.min[j];
+      if (aPrevious.max[j] != aPrevious.min[j]) {
+	v += (x - aPrevious.translation) / aPrevious.scale * (aPrevious.max[j] - aPrevious.min[j]);
+      }
+      aMatrix[aOffset + j] = normalise(j, v);
+    }
+  }
+
+  /**
+   * @param aMinMax bounds of the normalised data, updated in place for the
+   *                attributes that have a range
+   */
+  public void normalisedBounds(double[][] aMinMax) {
+    for (int j = 0; j < normalise.length; j++) {
+      if (normalise[j] && !Double.isNaN(min[j]) && max[j] != min[j]) {
+	aMinMax[j][0] = Math.min(translation, scale + translation);
+	aMinMax[j][1] = Math.max(translation, scale + translation);
+      }
+    }
+  }
+
+  public int getNumClasses() {
+    return numClasses;
+  }
+}
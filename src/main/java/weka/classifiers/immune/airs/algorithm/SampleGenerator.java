@@ -21,6 +21,7 @@ package weka.classifiers.immune.airs.algorithm;
 
 import weka.core.Instance;
 
+import java.io.Serializable;
 import java.util.Random;
 
 /**
@@ -32,14 +33,35 @@ import java.util.Random;
  *
  * @author Jason Brownlee
  */
-public abstract class SampleGenerator {
+public abstract class SampleGenerator implements Serializable {
 
   protected final Random rand;
 
+  protected transient CellArena arena;
+
   public SampleGenerator(Random aRand) {
     rand = aRand;
   }
 
 
+  /**
+   * @param aArena arena that clones are taken from, or null to allocate them
+   */
+  public void setArena(CellArena aArena) {
+    arena = aArena;
+  }
+
+  /**
+   * @param aCell
+   * @return a clone of the cell, taken from the arena when one is set
+   */
+  protected Cell copy(Cell aCell) {
+    if (arena == null) {
+      return new Cell(aCell);
+    }
+    return arena.obtain(aCell);
+  }
+
+
   public abstract Cell generateSample(Cell aCell, Instance aInstance);
 }
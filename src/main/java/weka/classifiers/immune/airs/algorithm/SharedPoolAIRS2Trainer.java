@@ -0,0 +1,176 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Created on 17/10/2026
+ *
+ */
+package weka.classifiers.immune.airs.algorithm;
+
+import weka.classifiers.immune.affinity.NeighbourHeap;
+import weka.core.Instance;
+
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Type: SharedPoolAIRS2Trainer<br>
+ * File: SharedPoolAIRS2Trainer.java<br>
+ * Date: 17/10/2026<br>
+ * <br>
+ * Description: AIRS2 worker that trains against a memory cell pool shared with
+ * other workers. The best match is found under the read lock of the pool and
+ * copied, ARB refinement runs without any lock, and the response to the
+ * candidate is applied under the write lock. If a cell was deleted or moved in
+ * the meantime the best match row may no longer hold the copied cell, so the
+ * best match is searched again before responding. Each worker keeps its own
+ * affinity function, random stream, arena and statistics. The resulting model
+ * depends on how the workers interleave.
+ * <br>
+ *
+ * @author Jason Brownlee
+ */
+public class SharedPoolAIRS2Trainer extends AIRS2Trainer {
+
+  protected ReentrantReadWriteLock lock;
+
+  protected transient NeighbourHeap bestMatchHeap;
+
+  protected long totalConflicts;
+
+
+  public SharedPoolAIRS2Trainer(
+    double aAffinityThresholdScalar,
+    double aClonalRate,
+    double aHyperMutationRate,
+    double aTotalResources,
+    double aStimulationValue,
+    int aNumInstancesAffinityThreshold,
+    Random aRand,
+    int aMemoryCellPoolInitialSize,
+    int aKNN) {
+    super(
+      aAffinityThresholdScalar,
+      aClonalRate,
+      aHyperMutationRate,
+      aTotalResources,
+      aStimulationValue,
+      aNumInstancesAffinityThreshold,
+      aRand,
+      aMemoryCellPoolInitialSize,
+      aKNN);
+  }
+
+
+  /**
+   * @param aPool the pool all workers train against
+   * @param aLock guards the pool, shared by all workers
+   */
+  public void share(ArrayCellPool aPool, ReentrantReadWriteLock aLock) {
+    memoryCellPool = aPool;
+    lock = aLock;
+  }
+
+  public ArrayCellPool getModel() {
+    return memoryCellPool;
+  }
+
+  @Override
+  protected void trainInstance(Instance current) {
+    if (arena == null) {
+      initialiseArena(current.numAttributes(), current.classIndex());
+    }
+    if (bestMatchHeap == null) {
+      bestMatchHeap = new NeighbourHeap(1);
+    }
+    double[] features = current.toDoubleArray();
+    int classValue = (int) current.classValue();
+
+    // identify best match from memory pool, the pool is not written to here
+    Cell best = null;
+    int bestMatch = -1;
+    int relocations;
+    lock.readLock().lock();
+    try {
+      relocations = memoryCellPool.getRelocationCount();
+      bestMatch = searchBestMatch(features, classValue);
+      if (bestMatch != -1) {
+	best = memoryCellPool.toCell(bestMatch, arena.obtain());
+	best.setStimulation(1.0 - bestMatchHeap.getDistance(0));
+      }
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+
+    if (best == null) {
+      lock.writeLock().lock();
+      try {
+	// another worker may have added a cell of the class in the meantime
+	if (memoryCellPool.getClassSize(classValue) == 0) {
+	  addNewMemoryCell(current);
+	  return;
+	}
+      }
+      finally {
+	lock.writeLock().unlock();
+      }
+      trainInstance(current);
+      return;
+    }
+    // check for an identical match
+    if (best.getStimulation() == 1.0) {
+      arena.recycle(best);
+      return;
+    }
+
+    // generate arbs and perform ARB refinement without holding the lock
+    generateARBs(arbCellPool, best, current);
+    Cell candidate = runARBRefinement(arbCellPool, current);
+
+    lock.writeLock().lock();
+    try {
+      double bestStimulation = best.getStimulation();
+      if (memoryCellPool.getRelocationCount() != relocations) {
+	// the row may hold another cell, respond to the current best match
+	totalConflicts++;
+	bestMatch = searchBestMatch(features, classValue);
+	bestStimulation = 1.0 - bestMatchHeap.getDistance(0);
+      }
+      memoryCellPool.setStimulation(bestMatch, bestStimulation);
+      respondToCandidateMemoryCell(bestMatch, candidate, current);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+    arena.recycle(best);
+    arena.recycle(arbCellPool.getCells());
+  }
+
+  /**
+   * Must be called holding a lock on the pool
+   */
+  protected int searchBestMatch(double[] aFeatures, int aClassValue) {
+    bestMatchHeap.clear();
+    memoryCellPool.nearestResponseNormalised(aFeatures, affinityFunction, aClassValue, bestMatchHeap);
+    return (bestMatchHeap.size() > 0) ? bestMatchHeap.getIndex(0) : -1;
+  }
+
+  @Override
+  public String getTrainingSummary() {
+    return super.getTrainingSummary()
+      + "Best match conflicts:............................" + Utils.format.format(totalConflicts) + "\n";
+  }
+}
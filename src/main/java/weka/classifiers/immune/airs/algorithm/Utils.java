@@ -19,14 +19,22 @@
  */
 package weka.classifiers.immune.airs.algorithm;
 
+import weka.classifiers.immune.affinity.NeighbourHeap;
 import weka.core.Instance;
 import weka.core.Instances;
 
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Type: Utils
@@ -47,37 +55,152 @@ public final class Utils {
   }
 
 
+  /**
+   * Mean affinity over every pair of instances, one thread
+   */
+  public final static int THRESHOLD_EXACT = 1;
+
+  /**
+   * Mean affinity over every pair of instances, blocked across the shared pool
+   */
+  public final static int THRESHOLD_EXACT_PARALLEL = 2;
+
+  /**
+   * Mean affinity over uniformly sampled pairs, sampled until the confidence
+   * interval is within the requested relative error
+   */
+  public final static int THRESHOLD_SAMPLED = 3;
+
+  protected final static int THRESHOLD_BLOCK_SIZE = 64;
+
+  protected final static int THRESHOLD_MIN_SAMPLES = 1000;
+
+  protected final static int PRUNE_MIN_INSTANCES = 256;
+
+  private static ExecutorService sharedExecutor;
+
+
+  /**
+   * The daemon pool used for parallel work when no executor has been
+   * provided, sized to the number of processors and created on first use
+   *
+   * @return
+   */
+  public final static synchronized ExecutorService getSharedExecutor() {
+    if (sharedExecutor == null) {
+      final AtomicInteger count = new AtomicInteger();
+      sharedExecutor = Executors.newFixedThreadPool(
+	Runtime.getRuntime().availableProcessors(),
+	new ThreadFactory() {
+	  public Thread newThread(Runnable r) {
+	    // name for debug if required
+	    Thread t = new Thread(r, "AIRS Worker " + count.incrementAndGet());
+	    t.setDaemon(true);
+	    return t;
+	  }
+	});
+    }
+    return sharedExecutor;
+  }
+
+
   public final static double calculateAffinityThreshold(
     Instances aInstances,
     int affinityThresholdNumInstances,
     Random rand,
     AffinityFunction affinityFunction) {
-    Instances newset = new Instances(aInstances);
+    return calculateAffinityThreshold(aInstances, affinityThresholdNumInstances, rand, affinityFunction, THRESHOLD_EXACT, 0, 0);
+  }
 
-    // check if all should be used
-    if (affinityThresholdNumInstances < 1 || affinityThresholdNumInstances > newset.numInstances()) {
-      affinityThresholdNumInstances = newset.numInstances();
+  /**
+   * @param aInstances
+   * @param affinityThresholdNumInstances size of the random subset to use, < 1 for all
+   * @param rand
+   * @param affinityFunction
+   * @param aMethod                       one of the THRESHOLD_* constants
+   * @param aError                        relative error bound when sampling
+   * @param aConfidence                   confidence of the error bound when sampling
+   * @return the mean normalised affinity between instances
+   */
+  public final static double calculateAffinityThreshold(
+    Instances aInstances,
+    int affinityThresholdNumInstances,
+    Random rand,
+    AffinityFunction affinityFunction,
+    int aMethod,
+    double aError,
+    double aConfidence) {
+    int numInstances = aInstances.numInstances();
+    int[] selection = new int[numInstances];
+    for (int i = 0; i < numInstances; i++) {
+      selection[i] = i;
     }
-    // prune some
-    else if (newset.numInstances() > affinityThresholdNumInstances) {
-      // randomise the dataset
-      newset.randomize(rand);
 
-      while (newset.numInstances() > affinityThresholdNumInstances) {
-	newset.delete(0);
+    // check if all should be used
+    int first = 0;
+    if (affinityThresholdNumInstances >= 1 && numInstances > affinityThresholdNumInstances) {
+      // same permutation as Instances.randomize(), keeping the last instances
+      for (int j = numInstances - 1; j > 0; j--) {
+	int k = rand.nextInt(j + 1);
+	int tmp = selection[j];
+	selection[j] = selection[k];
+	selection[k] = tmp;
       }
+      first = numInstances - affinityThresholdNumInstances;
+    }
+
+    double[][] rows = new double[numInstances - first][];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = aInstances.instance(selection[first + i]).toDoubleArray();
     }
 
-    int totalInstances = newset.numInstances();
+    switch (aMethod) {
+      case THRESHOLD_EXACT:
+	return pairwiseMean(rows, affinityFunction);
+      case THRESHOLD_EXACT_PARALLEL:
+	return pairwiseMeanParallel(rows, affinityFunction);
+      case THRESHOLD_SAMPLED:
+	return sampledPairwiseMean(rows, affinityFunction, rand, aError, aConfidence);
+      default:
+	throw new RuntimeException("Unknown affinity threshold method: " + aMethod);
+    }
+  }
+
+  /**
+   * Checks the affinity threshold parameters before training, rather than
+   * failing part way through or sampling with an infinite or NaN interval
+   *
+   * @param aMethod     one of the THRESHOLD_* constants (-P)
+   * @param aError      relative error bound when sampling (-L)
+   * @param aConfidence confidence of the error bound when sampling (-O)
+   * @throws Exception if any of the parameters is out of range
+   */
+  public final static void validateAffinityThresholdEstimation(int aMethod, double aError, double aConfidence)
+    throws Exception {
+    if (aMethod != THRESHOLD_EXACT && aMethod != THRESHOLD_EXACT_PARALLEL && aMethod != THRESHOLD_SAMPLED) {
+      throw new Exception("Unknown affinity threshold method (-P): " + aMethod
+	+ ", expected " + THRESHOLD_EXACT + " (exact), " + THRESHOLD_EXACT_PARALLEL
+	+ " (exact parallel) or " + THRESHOLD_SAMPLED + " (sampled).");
+    }
+    if (!(aError > 0.0)) {
+      throw new Exception("Affinity threshold error (-L) must be greater than 0: " + aError);
+    }
+    if (!(aConfidence > 0.0 && aConfidence < 1.0)) {
+      throw new Exception("Affinity threshold confidence (-O) must be in the range (0,1): " + aConfidence);
+    }
+  }
+
+  protected final static double pairwiseMean(double[][] aRows, AffinityFunction affinityFunction) {
+    int totalInstances = aRows.length;
     double sumAffinity = 0.0;
-    int count = 0;
+    long count = 0;
 
     // sum affinity values
     for (int i = 0; i < totalInstances; i++) {
-      Instance first = newset.instance(i);
+      double[] first = aRows[i];
 
       for (int j = i + 1; j < totalInstances; j++) {
-	sumAffinity += affinityFunction.affinityNormalised(first, newset.instance(j));
+	sumAffinity += affinityFunction.affinityNormalised(first, aRows[j]);
 	count++;
       }
     }
@@ -86,35 +209,208 @@ public final class Utils {
     return sumAffinity / count;
   }
 
+  /**
+   * Splits the pairs into stripes of rows with roughly equal numbers of pairs.
+   * Within a stripe the columns are visited in blocks so each block is reused
+   * by every row of the stripe while it is in cache. The partial sums are
+   * added in stripe order, so the result does not depend on scheduling.
+   */
+  protected final static double pairwiseMeanParallel(final double[][] aRows, final AffinityFunction affinityFunction) {
+    final int n = aRows.length;
+    long totalPairs = (long) n * (n - 1) / 2;
+    if (n < 2 * THRESHOLD_BLOCK_SIZE) {
+      return pairwiseMean(aRows, affinityFunction);
+    }
 
-  public final static int performPrunning(
-    CellPool aMemoryPool,
-    Instances instances,
-    AffinityFunction affinityFunction) {
-    LinkedList<Cell> cells = aMemoryPool.getCells();
-    int totalPruned = 0;
+    ExecutorService service = getSharedExecutor();
+    int numStripes = Math.min(8 * Runtime.getRuntime().availableProcessors(), n / THRESHOLD_BLOCK_SIZE);
+    List<Future<Double>> partials = new ArrayList<Future<Double>>(numStripes);
+    long pairsPerStripe = totalPairs / numStripes + 1;
+    int from = 0;
+    while (from < n) {
+      // row i pairs with the (n - i - 1) rows after it
+      int to = from;
+      long pairs = 0;
+      while (to < n && pairs < pairsPerStripe) {
+	pairs += n - to - 1;
+	to++;
+      }
+      final int start = from;
+      final int end = to;
+      partials.add(service.submit(new Callable<Double>() {
+	public Double call() {
+	  double sum = 0.0;
+	  for (int block = start + 1; block < n; block += THRESHOLD_BLOCK_SIZE) {
+	    int blockEnd = Math.min(block + THRESHOLD_BLOCK_SIZE, n);
+	    for (int i = start; i < end && i < blockEnd; i++) {
+	      double[] first = aRows[i];
+	      for (int j = Math.max(i + 1, block); j < blockEnd; j++) {
+		sum += affinityFunction.affinityNormalised(first, aRows[j]);
+	      }
+	    }
+	  }
+	  return sum;
+	}
+      }));
+      from = to;
+    }
 
-    // clear usage
-    for (Cell c : cells) {
-      c.clearUsage();
+    double sumAffinity = 0.0;
+    try {
+      for (Future<Double> partial : partials) {
+	sumAffinity += partial.get();
+      }
+    }
+    catch (InterruptedException e) {
+      cancelAll(partials);
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while calculating the affinity threshold.", e);
+    }
+    catch (ExecutionException e) {
+      cancelAll(partials);
+      throw new RuntimeException("Failed to calculate the affinity threshold.", e.getCause());
+    }
+
+    return sumAffinity / totalPairs;
+  }
+
+  /**
+   * Unbiased estimate of the mean pairwise affinity from pairs drawn uniformly
+   * with replacement. Sampling stops once the normal confidence interval of the
+   * mean is within the relative error, or falls back to the exact mean once
+   * it would need as many samples as there are pairs.
+   */
+  protected final static double sampledPairwiseMean(
+    double[][] aRows,
+    AffinityFunction affinityFunction,
+    Random rand,
+    double aError,
+    double aConfidence) {
+    int n = aRows.length;
+    long totalPairs = (long) n * (n - 1) / 2;
+    if (totalPairs <= THRESHOLD_MIN_SAMPLES) {
+      return pairwiseMean(aRows, affinityFunction);
+    }
+
+    double z = weka.core.Statistics.normalInverse(1.0 - (1.0 - aConfidence) / 2.0);
+    double mean = 0.0;
+    double m2 = 0.0;
+    long count = 0;
+    while (true) {
+      // uniform over ordered pairs with i != j, so uniform over pairs
+      int i = rand.nextInt(n);
+      int j = rand.nextInt(n - 1);
+      if (j >= i) {
+	j++;
+      }
+      double affinity = affinityFunction.affinityNormalised(aRows[i], aRows[j]);
+      // running mean and variance
+      count++;
+      double delta = affinity - mean;
+      mean += delta / count;
+      m2 += delta * (affinity - mean);
+
+      if (count >= THRESHOLD_MIN_SAMPLES) {
+	double halfWidth = z * Math.sqrt(m2 / (count - 1) / count);
+	if (halfWidth <= aError * mean) {
+	  return mean;
+	}
+	if (count >= totalPairs) {
+	  return pairwiseMean(aRows, affinityFunction);
+	}
+      }
+    }
+  }
+
+  protected final static void cancelAll(List<? extends Future<?>> aFutures) {
+    for (Future<?> f : aFutures) {
+      f.cancel(true);
     }
+  }
+
+
+  /**
+   * Removes memory cells that are not the best match of any instance. The
+   * best matches are found independently, so the instances are split across
+   * the shared pool with a usage count per worker, merged at the end.
+   *
+   * @param aMemoryPool
+   * @param instances
+   * @param affinityFunction
+   * @return the number of cells removed
+   */
+  public final static int performPrunning(
+    final ArrayCellPool aMemoryPool,
+    final Instances instances,
+    final AffinityFunction affinityFunction) {
+    // clear usage
+    aMemoryPool.clearUsage();
 
     // calculate usage
-    for (int i = 0; i < instances.numInstances(); i++) {
-      Cell best = aMemoryPool.affinityResponseNormalised(instances.instance(i), affinityFunction).getFirst();
-      best.incrementUsage();
+    int numInstances = instances.numInstances();
+    int numWorkers = Math.min(Runtime.getRuntime().availableProcessors(), numInstances / PRUNE_MIN_INSTANCES);
+    if (numWorkers <= 1) {
+      int[] usage = countBestMatches(aMemoryPool, instances, affinityFunction, 0, numInstances);
+      for (int row = 0; row < usage.length; row++) {
+	aMemoryPool.addUsage(row, usage[row]);
+      }
     }
+    else {
+      ExecutorService service = getSharedExecutor();
+      List<Future<int[]>> counts = new ArrayList<Future<int[]>>(numWorkers);
+      for (int w = 0; w < numWorkers; w++) {
+	final int from = (int) ((long) numInstances * w / numWorkers);
+	final int to = (int) ((long) numInstances * (w + 1) / numWorkers);
+	counts.add(service.submit(new Callable<int[]>() {
+	  public int[] call() {
+	    return countBestMatches(aMemoryPool, instances, affinityFunction, from, to);
+	  }
+	}));
+      }
 
-    // remove all without usage
-    for (Iterator<Cell> iter = cells.iterator(); iter.hasNext(); ) {
-      Cell element = iter.next();
-      if (element.getUsage() == 0) {
-	iter.remove();
-	totalPruned++;
+      try {
+	for (Future<int[]> count : counts) {
+	  int[] usage = count.get();
+	  for (int row = 0; row < usage.length; row++) {
+	    aMemoryPool.addUsage(row, usage[row]);
+	  }
+	}
+      }
+      catch (InterruptedException e) {
+	cancelAll(counts);
+	Thread.currentThread().interrupt();
+	throw new RuntimeException("Interrupted while pruning the memory pool.", e);
+      }
+      catch (ExecutionException e) {
+	cancelAll(counts);
+	throw new RuntimeException("Failed to prune the memory pool.", e.getCause());
       }
     }
 
-    return totalPruned;
+    // remove all without usage
+    return aMemoryPool.pruneUnused();
+  }
+
+  /**
+   * Read only with respect to the pool, so may run concurrently
+   *
+   * @return the number of instances in the range each cell is the best match for
+   */
+  protected final static int[] countBestMatches(
+    ArrayCellPool aMemoryPool,
+    Instances instances,
+    AffinityFunction affinityFunction,
+    int aFrom,
+    int aTo) {
+    int[] usage = new int[aMemoryPool.size()];
+    NeighbourHeap heap = new NeighbourHeap(1);
+    for (int i = aFrom; i < aTo; i++) {
+      heap.clear();
+      aMemoryPool.nearestResponseNormalised(instances.instance(i).toDoubleArray(), affinityFunction, ArrayCellPool.ANY_CLASS, heap);
+      usage[heap.getIndex(0)]++;
+    }
+    return usage;
   }
 
+
 }
@@ -21,13 +21,10 @@ package weka.classifiers.immune.airs.algorithm.classification;
 
 import weka.classifiers.immune.airs.algorithm.AISModelClassifier;
 import weka.classifiers.immune.airs.algorithm.AffinityFunction;
-import weka.classifiers.immune.airs.algorithm.Cell;
-import weka.classifiers.immune.airs.algorithm.CellPool;
-import weka.core.Instance;
+import weka.classifiers.immune.airs.algorithm.ArrayCellPool;
+import weka.classifiers.immune.airs.algorithm.MinMaxNormalisation;
 import weka.filters.unsupervised.attribute.Normalize;
 
-import java.util.LinkedList;
-
 /**
  * Type: MajorityVote
  * File: MajorityVote.java
@@ -42,17 +39,23 @@ public class MajorityVote extends AISModelClassifier {
   public MajorityVote(
     int aKNumNeighbours,
     Normalize aNormalise,
-    CellPool aCellPool,
+    ArrayCellPool aCellPool,
     AffinityFunction aAffinityFunction) {
     super(aKNumNeighbours, aNormalise, aCellPool, aAffinityFunction);
   }
 
+  public MajorityVote(
+    int aKNumNeighbours,
+    MinMaxNormalisation aNormalisation,
+    ArrayCellPool aCellPool,
+    AffinityFunction aAffinityFunction) {
+    super(aKNumNeighbours, aNormalisation, aCellPool, aAffinityFunction);
+  }
+
 
-  protected int classify(Instance aInstance) {
-    // respond to affinity
-    LinkedList<Cell> cells = model.affinityResponseUnnormalised(aInstance, affinityFunction);
+  protected int classifyNeighbours(int[] aAffinitySortedRows) {
     // determine the majority for the top k cells
-    int[] classCounts = determineClassCountForkNN(aInstance, cells);
+    int[] classCounts = determineClassCountForkNN(aAffinitySortedRows);
 
     int largestIndex = 0;
     int largestCount = classCounts[0];
@@ -20,15 +20,12 @@ package weka.classifiers.immune.airs.algorithm.merge;
 
 import weka.classifiers.immune.airs.algorithm.AISModelClassifier;
 import weka.classifiers.immune.airs.algorithm.AffinityFunction;
-import weka.classifiers.immune.airs.algorithm.Cell;
-import weka.classifiers.immune.airs.algorithm.CellPool;
+import weka.classifiers.immune.airs.algorithm.ArrayCellPool;
 import weka.classifiers.immune.airs.algorithm.MemoryCellMerger;
 import weka.classifiers.immune.airs.algorithm.classification.MajorityVote;
 import weka.core.Instances;
 import weka.filters.unsupervised.attribute.Normalize;
 
-import java.util.LinkedList;
-
 /**
  * Type: ConcatonateMerge <br>
  * File: ConcatonateMerge.java <br>
@@ -41,22 +38,27 @@ import java.util.LinkedList;
 public class ConcatenateMerge implements MemoryCellMerger {
 
   /**
-   * @param cells
+   * @param pools
    * @return
    */
   public AISModelClassifier mergeMemoryCells(
-    LinkedList[] cells,
+    ArrayCellPool[] pools,
     int aKNN,
     Normalize aNormalise,
     AffinityFunction aFunction,
     Instances aDataset) {
-    LinkedList<Cell> masterList = new LinkedList<Cell>();
-
-    for (int i = 0; i < cells.length; i++) {
-      masterList.addAll(cells[i]);
+    int total = 0;
+    for (int i = 0; i < pools.length; i++) {
+      total += pools[i].size();
     }
 
-    CellPool pool = new CellPool(masterList);
+    ArrayCellPool pool = new ArrayCellPool(pools[0].getNumAttributes(), pools[0].getClassIndex(), total);
+    for (int i = 0; i < pools.length; i++) {
+      pool.add(pools[i]);
+    }
+    if (pools[0].isIndexed()) {
+      pool.buildIndex(aFunction);
+    }
     MajorityVote classifier = new MajorityVote(aKNN, aNormalise, pool, aFunction);
     return classifier;
   }
@@ -47,7 +47,7 @@ public class RandomMutate extends SampleGenerator {
 
 
   public Cell generateSample(Cell aCell, Instance aInstance) {
-    Cell c = new Cell(aCell);
+    Cell c = copy(aCell);
     double[] attributes = c.getAttributes();
     boolean didMutate = false;
 
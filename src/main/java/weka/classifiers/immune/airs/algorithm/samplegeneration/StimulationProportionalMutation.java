@@ -50,7 +50,7 @@ public class StimulationProportionalMutation extends SampleGenerator {
     double stimulationValue = aCell.getStimulation();
     double mutationRange = 1.0 - stimulationValue;
     // clone the cell
-    Cell cell = new Cell(aCell);
+    Cell cell = copy(aCell);
 
     // mutate each gene
     // range is (1-normalised stimulation value)
@@ -104,7 +104,7 @@ public class StimulationProportionalMutation extends SampleGenerator {
     }
 
     // clone the cell
-    Cell cell = new Cell(aCell);
+    Cell cell = copy(aCell);
 
     // mutate each gene
     // range is (1-normalised stimulation value)
@@ -0,0 +1,119 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package weka.classifiers.immune.clonalg;
+
+import weka.classifiers.immune.affinity.NeighbourHeap;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Type: AntibodyMatrix<br>
+ * File: AntibodyMatrix.java<br>
+ * Date: 17/10/2026<br>
+ * <br>
+ * Description: Read-only copy of a trained antibody pool for classification.
+ * The attributes of all antibodies are held in a single row-major float
+ * matrix, half the memory of the antibodies' own vectors, and distances are
+ * summed in double precision from the float values. A row is the position of
+ * the antibody in the pool it was copied from.
+ * <br>
+ *
+ * @author Jason Brownlee
+ */
+public class AntibodyMatrix implements Serializable {
+
+  protected final int numAttributes;
+
+  protected final int size;
+
+  protected final float[] attributes;
+
+  protected final double[] classifications;
+
+
+  public AntibodyMatrix(List<? extends Antibody> aAntibodies) {
+    size = aAntibodies.size();
+    numAttributes = (size == 0) ? 0 : aAntibodies.get(0).getAttributes().length;
+    attributes = new float[size * numAttributes];
+    classifications = new double[size];
+    // iterated, the pool may be a linked list
+    int row = 0;
+    for (Antibody a : aAntibodies) {
+      double[] data = a.getAttributes();
+      for (int i = 0; i < numAttributes; i++) {
+	attributes[row * numAttributes + i] = (float) data[i];
+      }
+      classifications[row++] = a.getClassification();
+    }
+  }
+
+
+  /**
+   * Scans for the antibody with the best affinity, abandoning the distance
+   * of an antibody once it cannot beat the best so far. Equal affinities go to
+   * the first row.
+   *
+   * @param aData
+   * @param aFunction
+   * @return the row of the best antibody, or -1 if there are no antibodies
+   */
+  public int selectBestMatch(double[] aData, DistanceFunction aFunction) {
+    int best = -1;
+    double bestDistance = Double.POSITIVE_INFINITY;
+    double bound = Double.POSITIVE_INFINITY;
+
+    for (int row = 0, offset = 0; row < size; row++, offset += numAttributes) {
+      double sum = aFunction.distanceSquaredBounded(attributes, offset, aData, bound);
+      if (sum <= bound) {
+	double distance = Math.sqrt(sum);
+	if (best == -1 || distance < bestDistance) {
+	  best = row;
+	  bestDistance = distance;
+	  bound = aFunction.squaredBound(distance);
+	}
+      }
+    }
+
+    return best;
+  }
+
+  /**
+   * Offers every antibody that may be among the heap's nearest to the heap,
+   * equal affinities go to the lower row
+   *
+   * @param aData
+   * @param aFunction
+   * @param aHeap
+   */
+  public void nearest(double[] aData, DistanceFunction aFunction, NeighbourHeap aHeap) {
+    double bound = aFunction.squaredBound(aHeap.worstDistance());
+    for (int row = 0, offset = 0; row < size; row++, offset += numAttributes) {
+      double sum = aFunction.distanceSquaredBounded(attributes, offset, aData, bound);
+      if (sum <= bound && aHeap.offer(row, Math.sqrt(sum))) {
+	bound = aFunction.squaredBound(aHeap.worstDistance());
+      }
+    }
+  }
+
+  public double getClassification(int aRow) {
+    return classifications[aRow];
+  }
+
+  public int size() {
+    return size;
+  }
+}
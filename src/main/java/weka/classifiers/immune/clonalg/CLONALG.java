@@ -55,6 +55,16 @@ public class CLONALG extends AbstractClassifier {
 
   protected double remainderPoolRatio; // typically 5%-8%
 
+  protected boolean singlePrecision;
+
+  protected int numThreads; // clone maturation threads
+
+  protected int numIslands; // I
+
+  protected int migrationInterval; // M
+
+  protected int numMigrants; // X
+
   protected CLONALGAlgorithm algorithm;
 
   private final static String[] PARAMETERS =
@@ -65,9 +75,19 @@ public class CLONALG extends AbstractClassifier {
       "D",
       "G",
       "S",
-      "R"
+      "R",
+      "P",
+      "I",
+      "M",
+      "X"
     };
 
+  private final static String SINGLE_PRECISION_FLAG = "Z";
+
+  private final static String SINGLE_PRECISION_DESCRIPTION =
+    "Single precision model. Classifies with a copy of the trained antibodies held in single precision, " +
+      "which halves the memory read by each classification. Accuracy may differ slightly from double precision.";
+
   private final static String[] DESCRIPTIONS =
     {
       "Clonal factor (beta). Used to scale the number of clones created by the selected best antibodies.",
@@ -76,7 +96,14 @@ public class CLONALG extends AbstractClassifier {
       "Total replacements (d). The total number of antibodies in the remainder pool that are replaced each iteration. Typically 5%-8%",
       "Total generations. The total number of times that all antigens are exposed to the system.",
       "Random number generator seed. Seed used to initialise the random number generator.",
-      "Remainder pool percentage. The percentage of the total antibody pool size allocated for the remainder pool."
+      "Remainder pool percentage. The percentage of the total antibody pool size allocated for the remainder pool.",
+      "Maturation threads. Clones are created, mutated and evaluated on this many threads, 1 for the training thread. " +
+	"With more than one thread each block of clones has its own random stream, so the model depends on the seed " +
+	"but not on the number of threads, and differs from that of a single thread.",
+      "Islands (I). The number of populations trained concurrently, each with its own seed, whose memory pools " +
+	"are merged into the classifier. 1 trains a single population.",
+      "Migration interval (M). The generations between migrations of antibodies between islands.",
+      "Migrants (X). The number of best memory antibodies each island sends to the next island at each migration."
     };
 
 
@@ -89,6 +116,10 @@ public class CLONALG extends AbstractClassifier {
     numGenerations = 10;
     seed = 1;
     remainderPoolRatio = 0.1;
+    numThreads = 1;
+    numIslands = 1;
+    migrationInterval = 2;
+    numMigrants = 2;
   }
 
   /**
@@ -123,15 +154,43 @@ public class CLONALG extends AbstractClassifier {
 
     getCapabilities().testWithFail(trainingInstances);
 
+    if (numIslands <= 0) {
+      throw new Exception("The number of islands must be > 0.");
+    }
+    if (migrationInterval <= 0) {
+      throw new Exception("The migration interval must be > 0.");
+    }
+    if (numMigrants < 0) {
+      throw new Exception("The number of migrants must be >= 0.");
+    }
+
     // construct trainer
-    algorithm = new CLONALGAlgorithm(
-      clonalFactor,
-      antibodyPoolSize,
-      selectionPoolSize,
-      totalReplacement,
-      numGenerations,
-      seed,
-      remainderPoolRatio);
+    if (numIslands > 1) {
+      algorithm = new CLONALGIslandModel(
+	clonalFactor,
+	antibodyPoolSize,
+	selectionPoolSize,
+	totalReplacement,
+	numGenerations,
+	seed,
+	remainderPoolRatio,
+	numIslands,
+	migrationInterval,
+	numMigrants);
+    }
+    else {
+      algorithm = new CLONALGAlgorithm(
+	clonalFactor,
+	antibodyPoolSize,
+	selectionPoolSize,
+	totalReplacement,
+	numGenerations,
+	seed,
+	remainderPoolRatio);
+    }
+
+    algorithm.setSinglePrecision(singlePrecision);
+    algorithm.setNumThreads(numThreads);
 
     // train
     algorithm.train(trainingInstances);
@@ -182,6 +241,7 @@ public class CLONALG extends AbstractClassifier {
       Option o = new Option(DESCRIPTIONS[i], PARAMETERS[i], 1, "-" + PARAMETERS[i]);
       list.add(o);
     }
+    list.add(new Option(SINGLE_PRECISION_DESCRIPTION, SINGLE_PRECISION_FLAG, 0, "-" + SINGLE_PRECISION_FLAG));
 
     return list.elements();
   }
@@ -194,6 +254,11 @@ public class CLONALG extends AbstractClassifier {
     setNumGenerations(OptionHelper.getInteger(PARAMETERS[4], options, 10));
     setSeed(OptionHelper.getLong(PARAMETERS[5], options, 1));
     setRemainderPoolRatio(OptionHelper.getDouble(PARAMETERS[6], options, 0.1));
+    setNumThreads(OptionHelper.getInteger(PARAMETERS[7], options, 1));
+    setNumIslands(OptionHelper.getInteger(PARAMETERS[8], options, 1));
+    setMigrationInterval(OptionHelper.getInteger(PARAMETERS[9], options, 2));
+    setNumMigrants(OptionHelper.getInteger(PARAMETERS[10], options, 2));
+    setSinglePrecision(weka.core.Utils.getFlag(SINGLE_PRECISION_FLAG, options));
     // parental option setting
     super.setOptions(options);
   }
@@ -215,6 +280,17 @@ public class CLONALG extends AbstractClassifier {
     list.add(Long.toString(seed));
     list.add("-" + PARAMETERS[6]);
     list.add(Double.toString(remainderPoolRatio));
+    list.add("-" + PARAMETERS[7]);
+    list.add(Integer.toString(numThreads));
+    list.add("-" + PARAMETERS[8]);
+    list.add(Integer.toString(numIslands));
+    list.add("-" + PARAMETERS[9]);
+    list.add(Integer.toString(migrationInterval));
+    list.add("-" + PARAMETERS[10]);
+    list.add(Integer.toString(numMigrants));
+    if (singlePrecision) {
+      list.add("-" + SINGLE_PRECISION_FLAG);
+    }
 
     return list.toArray(new String[0]);
   }
@@ -248,6 +324,22 @@ public class CLONALG extends AbstractClassifier {
     return DESCRIPTIONS[6];
   }
 
+  public String numThreadsTipText() {
+    return DESCRIPTIONS[7];
+  }
+
+  public String numIslandsTipText() {
+    return DESCRIPTIONS[8];
+  }
+
+  public String migrationIntervalTipText() {
+    return DESCRIPTIONS[9];
+  }
+
+  public String numMigrantsTipText() {
+    return DESCRIPTIONS[10];
+  }
+
 
   /**
    * @return Returns the antibodyPoolSize.
@@ -347,6 +439,74 @@ public class CLONALG extends AbstractClassifier {
     this.totalReplacement = totalReplacement;
   }
 
+  public String singlePrecisionTipText() {
+    return SINGLE_PRECISION_DESCRIPTION;
+  }
+
+  public boolean getSinglePrecision() {
+    return singlePrecision;
+  }
+
+  public void setSinglePrecision(boolean singlePrecision) {
+    this.singlePrecision = singlePrecision;
+  }
+
+  /**
+   * @return Returns the numThreads.
+   */
+  public int getNumThreads() {
+    return numThreads;
+  }
+
+  /**
+   * @param numThreads The numThreads to set.
+   */
+  public void setNumThreads(int numThreads) {
+    this.numThreads = numThreads;
+  }
+
+  /**
+   * @return Returns the numIslands.
+   */
+  public int getNumIslands() {
+    return numIslands;
+  }
+
+  /**
+   * @param numIslands The numIslands to set.
+   */
+  public void setNumIslands(int numIslands) {
+    this.numIslands = numIslands;
+  }
+
+  /**
+   * @return Returns the migrationInterval.
+   */
+  public int getMigrationInterval() {
+    return migrationInterval;
+  }
+
+  /**
+   * @param migrationInterval The migrationInterval to set.
+   */
+  public void setMigrationInterval(int migrationInterval) {
+    this.migrationInterval = migrationInterval;
+  }
+
+  /**
+   * @return Returns the numMigrants.
+   */
+  public int getNumMigrants() {
+    return numMigrants;
+  }
+
+  /**
+   * @param numMigrants The numMigrants to set.
+   */
+  public void setNumMigrants(int numMigrants) {
+    this.numMigrants = numMigrants;
+  }
+
   public static void main(String[] args) {
    runClassifier(new CLONALG(), args);
   }
@@ -16,14 +16,24 @@
 package weka.classifiers.immune.clonalg;
 
 import weka.classifiers.immune.affinity.AttributeDistance;
+import weka.classifiers.immune.affinity.NeighbourHeap;
 import weka.core.Instance;
 import weka.core.Instances;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Type: CLONALGAlgorithm<br>
@@ -36,6 +46,9 @@ import java.util.Random;
  */
 public class CLONALGAlgorithm implements Serializable {
 
+  // clones matured by one task, each with its own random stream
+  protected final static int MATURATION_CHUNK_SIZE = 256;
+
   protected final double clonalFactor; // beta
 
   protected final int antibodyPoolSize; // N
@@ -58,6 +71,16 @@ public class CLONALGAlgorithm implements Serializable {
 
   protected DistanceFunction affinityFunction;
 
+  protected boolean singlePrecision;
+
+  // single precision copy of the memory pool used for classification, or null
+  protected AntibodyMatrix singleMemoryPool;
+
+  protected int numThreads = 1;
+
+  // matures clones in parallel during training, or null
+  protected transient ExecutorService executor;
+
   /**
    *
    */
@@ -117,66 +140,236 @@ public class CLONALGAlgorithm implements Serializable {
 
   protected void train(Instances aAntigens)
     throws Exception {
+    if (numThreads > 1) {
+      executor = createExecutor(numThreads);
+    }
+    try {
+      trainAntibodies(aAntigens);
+    }
+    finally {
+      if (executor != null) {
+	executor.shutdownNow();
+	executor = null;
+      }
+    }
+
+    // the memory pool is used as the classifier, it is not modified after
+    // training so classification can run on any number of threads
+    singleMemoryPool = singlePrecision ? new AntibodyMatrix(Arrays.asList(memoryPool)) : null;
+    // only needed during training
+    remainderPool = null;
+  }
+
+  protected static ExecutorService createExecutor(int aNumThreads) {
+    final AtomicInteger count = new AtomicInteger();
+    return Executors.newFixedThreadPool(aNumThreads, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+	// name for debug if required
+	Thread t = new Thread(r, "CLONALG Worker " + count.incrementAndGet());
+	t.setDaemon(true);
+	return t;
+      }
+    });
+  }
+
+  protected void trainAntibodies(Instances aAntigens) {
+    prepare(aAntigens);
+
+    for (int i = 0; i < numGenerations; i++) {
+      trainGeneration(aAntigens);
+    }
+  }
+
+  /**
+   * Creates the antibody pools
+   *
+   * @param aAntigens
+   */
+  protected void prepare(Instances aAntigens) {
     // prepare the algorithm
     algorithmPreperation(aAntigens);
 
     // initialise the memory pools
     initialiseAntibodyPool(aAntigens);
+  }
 
-    for (int i = 0; i < numGenerations; i++) {
-      // randomise the dataset
-      aAntigens.randomize(rand);
+  /**
+   * Exposes the antibodies to every antigen once, in random order
+   *
+   * @param aAntigens
+   */
+  protected void trainGeneration(Instances aAntigens) {
+    // randomise the dataset
+    aAntigens.randomize(rand);
 
-      for (int j = 0; j < aAntigens.numInstances(); j++) {
-	// select a random antigen without reselection
-	Instance currentInstance = aAntigens.instance(j);
+    for (int j = 0; j < aAntigens.numInstances(); j++) {
+      // select a random antigen without reselection
+      Instance currentInstance = aAntigens.instance(j);
 
-	// calculate affinities for the antibody pool
-	calculateAffinity(remainderPool, currentInstance);
-	calculateAffinity(memoryPool, currentInstance);
+      // calculate affinities for the antibody pool
+      calculateAffinity(remainderPool, currentInstance);
+      calculateAffinity(memoryPool, currentInstance);
 
-	// locate the best n antibodies
-	Antibody[] bestSet = selectBestAntibodySet(currentInstance);
+      // locate the best n antibodies
+      Antibody[] bestSet = selectBestAntibodySet(currentInstance);
 
+      Antibody[] cloneSet;
+      if (executor == null) {
 	// perform cloning and mutation (maturation)
-	Antibody[] cloneSet = prepareCloneSet(bestSet, currentInstance);
+	cloneSet = prepareCloneSet(bestSet, currentInstance);
 
 	// calculate the affinities for the clonal antibody pool
 	calculateAffinity(cloneSet, currentInstance);
+      }
+      else {
+	cloneSet = prepareCloneSetParallel(bestSet, currentInstance);
+      }
 
-	// select a candidate antigen
-	Arrays.sort(cloneSet);
-	Antibody candidate = cloneSet[0];
-
-	// check if a replacement can occur
-	// must be of the correct class
-	if (candidate.getClassification() == currentInstance.classValue()) {
-	  // must have better affinity than best in memory pool
-	  Arrays.sort(memoryPool);
-	  if (candidate.getAffinity() < memoryPool[0].getAffinity()) {
-	    memoryPool[0] = candidate;
-	  }
+      // select a candidate antigen
+      Antibody candidate = cloneSet[selectBest(cloneSet)];
+
+      // check if a replacement can occur
+      // must be of the correct class
+      if (candidate.getClassification() == currentInstance.classValue()) {
+	// must have better affinity than best in memory pool
+	int best = selectBest(memoryPool);
+	if (candidate.getAffinity() < memoryPool[best].getAffinity()) {
+	  memoryPool[best] = candidate;
 	}
+      }
 
-	// replace the lower d members of the remainder pool with random instances
-	Arrays.sort(remainderPool);
+      // replace the lower d members of the remainder pool with random instances,
+      // by rank from the number of clones
+      if (cloneSet.length - 1 < replacementPoolSize) {
+	int[] ranked = selectBest(remainderPool, replacementPoolSize);
 	for (int k = cloneSet.length - 1; k < replacementPoolSize; k++) {
-	  remainderPool[k] = generateRandomAntibodyInRange(remainderPool[k], currentInstance);
+	  remainderPool[ranked[k]] = generateRandomAntibodyInRange(remainderPool[ranked[k]], currentInstance);
 	}
       }
     }
+  }
 
-    // the memory pool is used as the classifier
+  /**
+   * @param a whether classification uses a single precision copy of the
+   *          memory pool, must be set before training
+   */
+  public void setSinglePrecision(boolean a) {
+    singlePrecision = a;
+  }
+
+  /**
+   * @param a threads that mature clones during training, 1 or less to mature
+   *          them on the training thread, must be set before training
+   */
+  public void setNumThreads(int a) {
+    numThreads = a;
   }
 
 
+  /**
+   * Classifies with a single O(N) scan of the memory pool. Nothing is
+   * written, so a trained model may classify from many threads at once.
+   *
+   * @param aInstance
+   * @return the class of the best matching antibody
+   */
   public double classify(Instance aInstance) {
-    // calculate affinity for instance
-    calculateAffinity(memoryPool, aInstance);
-    // sort by affinity
-    Arrays.sort(memoryPool);
+    double[] data = aInstance.toDoubleArray();
+    if (singleMemoryPool != null) {
+      int bmu = singleMemoryPool.selectBestMatch(data, affinityFunction);
+      return singleMemoryPool.getClassification(bmu);
+    }
+    // locate the best match
+    int bmu = selectBestMatchPosition(memoryPool, data);
     // return the classification of the best match
-    return memoryPool[0].getClassification();
+    return memoryPool[bmu].getClassification();
+  }
+
+  /**
+   * Scans for the antibody with the best affinity, abandoning the distance
+   * of an antibody once it cannot beat the best so far. Equal affinities go to
+   * the first antibody in the array, as after a stable sort. The affinities
+   * of the antibodies are not updated.
+   *
+   * @param aAntibodies
+   * @param aData
+   * @return the position of the best antibody
+   */
+  protected int selectBestMatchPosition(Antibody[] aAntibodies, double[] aData) {
+    int best = -1;
+    double bestDistance = Double.POSITIVE_INFINITY;
+    double bound = Double.POSITIVE_INFINITY;
+
+    for (int i = 0; i < aAntibodies.length; i++) {
+      double sum = affinityFunction.distanceSquaredBounded(aAntibodies[i].getAttributes(), aData, bound);
+      if (sum <= bound) {
+	double distance = Math.sqrt(sum);
+	if (best == -1 || distance < bestDistance) {
+	  best = i;
+	  bestDistance = distance;
+	  bound = affinityFunction.squaredBound(distance);
+	}
+      }
+    }
+
+    return best;
+  }
+
+  /**
+   * Scores the memory pool against the antigens, each antigen adding one to
+   * its best match when the classes agree and subtracting one otherwise
+   *
+   * @param aAntigens
+   * @return the score of each memory antibody
+   */
+  protected int[] scoreMemoryPool(Instances aAntigens) {
+    int[] scores = new int[memoryPool.length];
+    for (int i = 0; i < aAntigens.numInstances(); i++) {
+      Instance antigen = aAntigens.instance(i);
+      int bmu = selectBestMatchPosition(memoryPool, antigen.toDoubleArray());
+      scores[bmu] += (memoryPool[bmu].getClassification() == antigen.classValue()) ? 1 : -1;
+    }
+    return scores;
+  }
+
+  /**
+   * @param aAntigens
+   * @param aCount
+   * @return copies of the highest scoring memory antibodies, for another
+   * population to take in
+   */
+  protected Antibody[] selectEmigrants(Instances aAntigens, int aCount) {
+    int[] scores = scoreMemoryPool(aAntigens);
+    NeighbourHeap heap = new NeighbourHeap(Math.min(aCount, memoryPool.length));
+    for (int i = 0; i < scores.length; i++) {
+      heap.offer(i, -scores[i]);
+    }
+
+    int[] selected = heap.sortedIndices();
+    Antibody[] emigrants = new Antibody[selected.length];
+    for (int i = 0; i < emigrants.length; i++) {
+      emigrants[i] = new Antibody(memoryPool[selected[i]]);
+    }
+    return emigrants;
+  }
+
+  /**
+   * Replaces the lowest scoring memory antibodies with the immigrants
+   *
+   * @param aAntigens
+   * @param aImmigrants
+   */
+  protected void immigrate(Instances aAntigens, Antibody[] aImmigrants) {
+    int[] scores = scoreMemoryPool(aAntigens);
+    NeighbourHeap heap = new NeighbourHeap(Math.min(aImmigrants.length, memoryPool.length));
+    for (int i = 0; i < scores.length; i++) {
+      heap.offer(i, scores[i]);
+    }
+
+    int[] replaced = heap.sortedIndices();
+    for (int i = 0; i < replaced.length; i++) {
+      memoryPool[replaced[i]] = aImmigrants[i];
+    }
   }
 
 
@@ -194,6 +387,14 @@ public class CLONALGAlgorithm implements Serializable {
     Antibody aClone,
     double aMutationRate,
     Instance aInstance) {
+    mutateClone(aClone, aMutationRate, aInstance, rand);
+  }
+
+  protected void mutateClone(
+    Antibody aClone,
+    double aMutationRate,
+    Instance aInstance,
+    Random aRand) {
     double[][] minmax = affinityFunction.getMinMax();
     AttributeDistance[] attribs = affinityFunction.getDistanceMeasures();
 
@@ -204,7 +405,7 @@ public class CLONALGAlgorithm implements Serializable {
 	continue;
       }
       else if (attribs[i].isNominal()) {
-	data[i] = rand.nextInt(aInstance.attribute(i).numValues());
+	data[i] = aRand.nextInt(aInstance.attribute(i).numValues());
       }
       else if (attribs[i].isNumeric()) {
 	// determine the mutation rate based range
@@ -216,7 +417,7 @@ public class CLONALGAlgorithm implements Serializable {
 	double max = Math.min(data[i] + (range / 2.0), minmax[i][1]);
 
 	// generate new value in VALID range and store
-	data[i] = min + (rand.nextDouble() * (max - min));
+	data[i] = min + (aRand.nextDouble() * (max - min));
       }
       else {
 	throw new RuntimeException("Unsuppored attribute type!");
@@ -244,29 +445,137 @@ public class CLONALGAlgorithm implements Serializable {
     return clones.toArray(new Antibody[0]);
   }
 
+  /**
+   * Creates, mutates and calculates the affinity of the same number of clones
+   * of each antibody as prepareCloneSet(), in chunks run on the executor. Each
+   * chunk draws from its own random stream split from the algorithm's
+   * random in chunk order, so the clones depend on the seed but not on the
+   * number of threads. They differ from those of prepareCloneSet().
+   *
+   * @param aBestSet
+   * @param aInstance
+   * @return the clones, with their affinities
+   */
+  protected Antibody[] prepareCloneSetParallel(final Antibody[] aBestSet, final Instance aInstance) {
+    // the clones of each rank follow those of the rank before
+    final int[] firstClone = new int[aBestSet.length + 1];
+    for (int i = 1; i <= aBestSet.length; i++) {
+      firstClone[i] = firstClone[i - 1] + (int) Math.round((clonalFactor * antibodyPoolSize) / i);
+    }
+    final Antibody[] clones = new Antibody[firstClone[aBestSet.length]];
+    final double[] data = aInstance.toDoubleArray();
+
+    SplittableRandom streams = new SplittableRandom(rand.nextLong());
+    List<Future<Object>> chunks = new ArrayList<Future<Object>>();
+    for (int from = 0; from < clones.length; from += MATURATION_CHUNK_SIZE) {
+      final int start = from;
+      final int end = Math.min(from + MATURATION_CHUNK_SIZE, clones.length);
+      final Random chunkRand = new Random(streams.split().nextLong());
+      chunks.add(executor.submit(new Callable<Object>() {
+	public Object call() {
+	  int rank = 0;
+	  for (int k = start; k < end; k++) {
+	    while (k >= firstClone[rank + 1]) {
+	      rank++;
+	    }
+	    double mutationRate = (double) (rank + 1) / (double) aBestSet.length;
+	    Antibody a = new Antibody(aBestSet[rank]); // create
+	    mutateClone(a, mutationRate, aInstance, chunkRand); // mutate
+	    a.setAffinity(affinityFunction.calculateDistance(a.getAttributes(), data));
+	    clones[k] = a;
+	  }
+	  return null;
+	}
+      }));
+    }
+
+    try {
+      for (Future<Object> chunk : chunks) {
+	chunk.get();
+      }
+    }
+    catch (InterruptedException e) {
+      cancelAll(chunks);
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while maturing clones.", e);
+    }
+    catch (ExecutionException e) {
+      cancelAll(chunks);
+      throw new RuntimeException("Failed to mature clones.", e.getCause());
+    }
+
+    return clones;
+  }
+
+  protected static void cancelAll(List<? extends Future<?>> aFutures) {
+    for (Future<?> f : aFutures) {
+      f.cancel(true);
+    }
+  }
 
+
+  /**
+   * The n antibodies of the remainder then memory pool with the lowest
+   * affinity values, selected with a bounded heap in O(N log n) rather than by
+   * sorting both pools
+   *
+   * @param aInstance
+   * @return the best antibodies, in ascending order of affinity value
+   */
   protected Antibody[] selectBestAntibodySet(Instance aInstance) {
     Antibody[] bestSet = new Antibody[selectionPoolSize];
-    LinkedList<Antibody> totalSet = new LinkedList<Antibody>();
+    if (selectionPoolSize > remainderPool.length + memoryPool.length) {
+      throw new RuntimeException("The selection pool size [" + selectionPoolSize + "] is larger than the antibody pool.");
+    }
+    NeighbourHeap heap = new NeighbourHeap(selectionPoolSize);
 
+    // equal affinities go to the remainder pool first, as in a stable sort of
+    // the remainder pool followed by the memory pool
     for (int i = 0; i < remainderPool.length; i++) {
-      totalSet.add(remainderPool[i]);
+      heap.offer(i, remainderPool[i].getAffinity());
     }
     for (int i = 0; i < memoryPool.length; i++) {
-      totalSet.add(memoryPool[i]);
+      heap.offer(remainderPool.length + i, memoryPool[i].getAffinity());
     }
 
-    // sort ascending in terms of affinity values, though
-    // decending in terms of actual affinity quality
-    Collections.sort(totalSet);
-
+    int[] selected = heap.sortedIndices();
     for (int i = 0; i < bestSet.length; i++) {
-      bestSet[i] = totalSet.get(i);
+      int index = selected[i];
+      bestSet[i] = (index < remainderPool.length) ? remainderPool[index] : memoryPool[index - remainderPool.length];
     }
 
     return bestSet;
   }
 
+  /**
+   * @param aAntibodies
+   * @return the position of the antibody with the lowest affinity value, the
+   * first of equal values
+   */
+  protected static int selectBest(Antibody[] aAntibodies) {
+    int best = 0;
+    for (int i = 1; i < aAntibodies.length; i++) {
+      if (aAntibodies[i].getAffinity() < aAntibodies[best].getAffinity()) {
+	best = i;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * @param aAntibodies
+   * @param aCount
+   * @return positions of the aCount antibodies with the lowest affinity
+   * values, in ascending order of affinity value
+   */
+  protected static int[] selectBest(Antibody[] aAntibodies, int aCount) {
+    NeighbourHeap heap = new NeighbourHeap(aCount);
+    for (int i = 0; i < aAntibodies.length; i++) {
+      heap.offer(i, aAntibodies[i].getAffinity());
+    }
+    return heap.sortedIndices();
+  }
+
   protected void calculateAffinity(Antibody[] antibodies, Instance aInstance) {
     double[] data = aInstance.toDoubleArray();
 
@@ -0,0 +1,183 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Created on 17/10/2026
+ *
+ */
+package weka.classifiers.immune.clonalg;
+
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Type: CLONALGIslandModel<br>
+ * Date: 17/10/2026<br>
+ * <br>
+ * <p>
+ * Description: Trains several independent CLONALG populations (islands)
+ * concurrently, each with its own seed derived from the user seed and its
+ * own copy of the antigens. Every migration interval each island sends
+ * copies of its best memory antibodies to the next island in a ring, where
+ * they replace the worst. The memory pools of all islands are merged into
+ * the classifier. Training is deterministic for a given seed whatever the
+ * number of threads.
+ *
+ * @author Jason Brownlee
+ */
+public class CLONALGIslandModel extends CLONALGAlgorithm {
+
+  protected final int numIslands;
+
+  protected final int migrationInterval; // generations between migrations
+
+  protected final int numMigrants;
+
+  protected int numMigrations;
+
+
+  public CLONALGIslandModel(
+    double aClonalFactor,
+    int aAntibodyPoolSize,
+    int aSelectionPoolSize,
+    int aReplacementPoolSize,
+    int aNumGenerations,
+    long aSeed,
+    double aRemainderPoolRatio,
+    int aNumIslands,
+    int aMigrationInterval,
+    int aNumMigrants) {
+    super(aClonalFactor, aAntibodyPoolSize, aSelectionPoolSize, aReplacementPoolSize, aNumGenerations, aSeed, aRemainderPoolRatio);
+    numIslands = aNumIslands;
+    migrationInterval = aMigrationInterval;
+    numMigrants = aNumMigrants;
+  }
+
+
+  protected void trainAntibodies(Instances aAntigens) {
+    final CLONALGAlgorithm[] islands = new CLONALGAlgorithm[numIslands];
+    final Instances[] antigens = new Instances[numIslands];
+    SplittableRandom streams = new SplittableRandom(seed);
+    for (int i = 0; i < numIslands; i++) {
+      islands[i] = new CLONALGAlgorithm(
+	clonalFactor,
+	antibodyPoolSize,
+	selectionPoolSize,
+	replacementPoolSize,
+	numGenerations,
+	streams.split().nextLong(),
+	remainderPoolRatio);
+      // clones of every island are matured by the same pool
+      islands[i].executor = executor;
+      // each island shuffles its own antigens
+      antigens[i] = new Instances(aAntigens);
+    }
+
+    numMigrations = 0;
+    ExecutorService pool = createExecutor(numIslands);
+    try {
+      Antibody[][] emigrants = new Antibody[numIslands][];
+      for (int generation = 0; generation < numGenerations; generation += migrationInterval) {
+	final boolean first = (generation == 0);
+	final int epoch = Math.min(migrationInterval, numGenerations - generation);
+	final boolean migrate = (numMigrants > 0 && generation + epoch < numGenerations);
+	final Antibody[][] arriving = emigrants;
+	final Antibody[][] leaving = new Antibody[numIslands][];
+
+	List<Future<Object>> tasks = new ArrayList<Future<Object>>(numIslands);
+	for (int i = 0; i < numIslands; i++) {
+	  final int island = i;
+	  tasks.add(pool.submit(new Callable<Object>() {
+	    public Object call() {
+	      if (first) {
+		islands[island].prepare(antigens[island]);
+	      }
+	      // immigrants come from the previous island in the ring
+	      Antibody[] immigrants = arriving[(island + numIslands - 1) % numIslands];
+	      if (immigrants != null) {
+		islands[island].immigrate(antigens[island], immigrants);
+	      }
+	      for (int j = 0; j < epoch; j++) {
+		islands[island].trainGeneration(antigens[island]);
+	      }
+	      if (migrate) {
+		leaving[island] = islands[island].selectEmigrants(antigens[island], numMigrants);
+	      }
+	      return null;
+	    }
+	  }));
+	}
+	await(tasks);
+
+	if (migrate) {
+	  numMigrations++;
+	}
+	emigrants = leaving;
+      }
+    }
+    finally {
+      pool.shutdownNow();
+    }
+
+    // merge the memory pools, the islands share the same attribute ranges
+    List<Antibody> merged = new ArrayList<Antibody>();
+    for (int i = 0; i < numIslands; i++) {
+      for (Antibody a : islands[i].memoryPool) {
+	merged.add(a);
+      }
+    }
+    memoryPool = merged.toArray(new Antibody[merged.size()]);
+    remainderPool = null;
+    affinityFunction = islands[0].affinityFunction;
+  }
+
+  protected static void await(List<Future<Object>> aTasks) {
+    try {
+      for (Future<Object> task : aTasks) {
+	task.get();
+      }
+    }
+    catch (InterruptedException e) {
+      cancelAll(aTasks);
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while training islands.", e);
+    }
+    catch (ExecutionException e) {
+      cancelAll(aTasks);
+      throw new RuntimeException("Failed to train islands.", e.getCause());
+    }
+  }
+
+  /**
+   * @return the number of islands
+   */
+  public int getNumIslands() {
+    return numIslands;
+  }
+
+  /**
+   * @return the number of migrations performed during training
+   */
+  public int getNumMigrations() {
+    return numMigrations;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Created on 17/10/2026
+ *
+ */
+package weka.classifiers.immune.clonalg;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * Type: CLONALGSelectionBenchmark<br>
+ * File: CLONALGSelectionBenchmark.java<br>
+ * Date: 17/10/2026<br>
+ * <br>
+ * Description: Compares selecting the best n antibodies of a large antibody
+ * pool by sorting the combined pools with the bounded heap selection,
+ * checking that both select the same antibodies in the same order. Then
+ * times CLONALG training at the antibody pool size.
+ * <br>
+ * Usage: CLONALGSelectionBenchmark [antibodyPoolSize] [selectionPoolSize]
+ * <br>
+ *
+ * @author Jason Brownlee
+ */
+public class CLONALGSelectionBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int antibodyPoolSize = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+    int selectionPoolSize = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+    int numAttributes = 8;
+    int repeats = 500;
+    Random rand = new Random(1);
+
+    CLONALGAlgorithm algorithm = new CLONALGAlgorithm(0.1, antibodyPoolSize, selectionPoolSize, 0, 1, 1, 0.1);
+    int remainderSize = (int) Math.round(antibodyPoolSize * 0.1);
+    algorithm.remainderPool = new Antibody[remainderSize];
+    algorithm.memoryPool = new Antibody[antibodyPoolSize - remainderSize];
+    Antibody[][] pools = {algorithm.remainderPool, algorithm.memoryPool};
+    for (int p = 0; p < pools.length; p++) {
+      for (int i = 0; i < pools[p].length; i++) {
+	pools[p][i] = new Antibody(new double[numAttributes + 1], numAttributes);
+      }
+    }
+
+    System.out.println("Antibody pool size: " + antibodyPoolSize + ", selection pool size: " + selectionPoolSize);
+    int mismatches = 0;
+    for (int repeat = 0; repeat < 3; repeat++) {
+      long sortTime = 0;
+      long selectTime = 0;
+      for (int r = 0; r < repeats; r++) {
+	// a new antigen, with some equal affinities
+	for (int p = 0; p < pools.length; p++) {
+	  for (int i = 0; i < pools[p].length; i++) {
+	    pools[p][i].setAffinity(rand.nextInt(antibodyPoolSize));
+	  }
+	}
+	long start = System.nanoTime();
+	Antibody[] sorted = sortAndTake(algorithm, selectionPoolSize);
+	sortTime += System.nanoTime() - start;
+	start = System.nanoTime();
+	Antibody[] selected = algorithm.selectBestAntibodySet(null);
+	selectTime += System.nanoTime() - start;
+	for (int i = 0; i < selectionPoolSize; i++) {
+	  if (sorted[i] != selected[i]) {
+	    mismatches++;
+	    break;
+	  }
+	}
+      }
+      System.out.println("Sort: " + (sortTime / 1000000) + "ms, select: " + (selectTime / 1000000) + "ms");
+    }
+    System.out.println("Mismatched selections: " + mismatches);
+
+    // training time
+    Instances data = generate(200, numAttributes, rand);
+    int[] sizes = {antibodyPoolSize / 10, antibodyPoolSize / 10, antibodyPoolSize / 4};
+    for (int i = 0; i < sizes.length; i++) {
+      // the first run warms up
+      CLONALG clonalg = new CLONALG();
+      clonalg.setAntibodyPoolSize(sizes[i]);
+      clonalg.setClonalFactor(10.0 / sizes[i]);
+      clonalg.setSelectionPoolSize(selectionPoolSize);
+      long start = System.nanoTime();
+      clonalg.buildClassifier(data);
+      System.out.println("CLONALG antibody pool size " + sizes[i] + ": " + ((System.nanoTime() - start) / 1000000) + "ms");
+    }
+  }
+
+  /**
+   * The selection as it was done before the heap, a stable sort of the
+   * remainder then memory pool
+   */
+  protected static Antibody[] sortAndTake(CLONALGAlgorithm aAlgorithm, int aCount) {
+    LinkedList<Antibody> totalSet = new LinkedList<Antibody>();
+    Collections.addAll(totalSet, aAlgorithm.remainderPool);
+    Collections.addAll(totalSet, aAlgorithm.memoryPool);
+    Collections.sort(totalSet);
+    Antibody[] best = new Antibody[aCount];
+    for (int i = 0; i < aCount; i++) {
+      best[i] = totalSet.get(i);
+    }
+    return best;
+  }
+
+  protected static Instances generate(int aNumInstances, int aNumAttributes, Random aRand) {
+    ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+    for (int i = 0; i < aNumAttributes; i++) {
+      attributes.add(new Attribute("a" + i));
+    }
+    ArrayList<String> classes = new ArrayList<String>();
+    classes.add("c0");
+    classes.add("c1");
+    attributes.add(new Attribute("class", classes));
+    Instances data = new Instances("benchmark", attributes, aNumInstances);
+    data.setClassIndex(aNumAttributes);
+
+    for (int i = 0; i < aNumInstances; i++) {
+      double[] v = new double[aNumAttributes + 1];
+      int c = aRand.nextInt(2);
+      for (int j = 0; j < aNumAttributes; j++) {
+	v[j] = aRand.nextGaussian() + c;
+      }
+      v[aNumAttributes] = c;
+      data.add(new DenseInstance(1.0, v));
+    }
+    return data;
+  }
+}
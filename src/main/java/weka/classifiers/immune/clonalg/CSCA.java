@@ -56,6 +56,14 @@ public class CSCA extends AbstractClassifier {
 
   protected int numPartitions; // p
 
+  protected int numIslands; // I
+
+  protected int migrationInterval; // M
+
+  protected int numMigrants; // X
+
+  protected boolean singlePrecision;
+
   protected CSCAAlgorithm algorithm;
 
   protected String trainingSummary;
@@ -69,9 +77,18 @@ public class CSCA extends AbstractClassifier {
       "a",
       "E",
       "k",
-      "p"
+      "p",
+      "I",
+      "M",
+      "X"
     };
 
+  private final static String SINGLE_PRECISION_FLAG = "Z";
+
+  private final static String SINGLE_PRECISION_DESCRIPTION =
+    "Single precision model. Classifies with a copy of the trained antibodies held in single precision, " +
+      "which halves the memory read by each classification. Accuracy may differ slightly from double precision.";
+
   private final static String[] DESCRIPTIONS =
     {
       "Initial population size (S).",
@@ -80,7 +97,11 @@ public class CSCA extends AbstractClassifier {
       "Clonal scale factor (Alpha).",
       "Minimum fitness threshold (Eta).",
       "k-Nearest Neighbours (k).",
-      "Total Partitions (p)."
+      "Total Partitions (p).",
+      "Islands (I). The number of populations trained concurrently, each with its own seed, whose antibodies " +
+	"are merged into the classifier. 1 trains a single population.",
+      "Migration interval (M). The generations between migrations of antibodies between islands.",
+      "Migrants (X). The number of fittest antibodies each island sends to the next island at each migration."
     };
 
 
@@ -93,6 +114,9 @@ public class CSCA extends AbstractClassifier {
     minimumFitnessThreshold = 1.0;
     kNN = 1;
     numPartitions = 1;
+    numIslands = 1;
+    migrationInterval = 2;
+    numMigrants = 2;
 
     // TODO: should not be true by default
     m_Debug = true;
@@ -134,16 +158,35 @@ public class CSCA extends AbstractClassifier {
     performParameterValidation(trainingInstances);
 
     // construct trainer
-    algorithm = new CSCAAlgorithm(
-      initialPopulationSize,
-      totalGenerations,
-      seed,
-      clonalScaleFactor,
-      minimumFitnessThreshold,
-      kNN,
-      numPartitions,
-      m_Debug
-    );
+    if (numIslands > 1) {
+      algorithm = new CSCAIslandModel(
+	initialPopulationSize,
+	totalGenerations,
+	seed,
+	clonalScaleFactor,
+	minimumFitnessThreshold,
+	kNN,
+	numPartitions,
+	m_Debug,
+	numIslands,
+	migrationInterval,
+	numMigrants
+      );
+    }
+    else {
+      algorithm = new CSCAAlgorithm(
+	initialPopulationSize,
+	totalGenerations,
+	seed,
+	clonalScaleFactor,
+	minimumFitnessThreshold,
+	kNN,
+	numPartitions,
+	m_Debug
+      );
+    }
+
+    algorithm.setSinglePrecision(singlePrecision);
 
     // train
     algorithm.train(trainingInstances);
@@ -167,6 +210,16 @@ public class CSCA extends AbstractClassifier {
       throw new Exception("Initial population size must be > 0 and <= total training instances.");
     }
 
+    if (numIslands <= 0) {
+      throw new Exception("The number of islands must be > 0.");
+    }
+    if (migrationInterval <= 0) {
+      throw new Exception("The migration interval must be > 0.");
+    }
+    if (numMigrants < 0) {
+      throw new Exception("The number of migrants must be >= 0.");
+    }
+
   }
 
   public double classifyInstance(Instance instance) throws Exception {
@@ -222,6 +275,7 @@ public class CSCA extends AbstractClassifier {
       Option o = new Option(DESCRIPTIONS[i], PARAMETERS[i], 1, "-" + PARAMETERS[i]);
       list.add(o);
     }
+    list.add(new Option(SINGLE_PRECISION_DESCRIPTION, SINGLE_PRECISION_FLAG, 0, "-" + SINGLE_PRECISION_FLAG));
 
     return list.elements();
   }
@@ -235,6 +289,10 @@ public class CSCA extends AbstractClassifier {
     setMinimumFitnessThreshold(OptionHelper.getDouble(PARAMETERS[4], options, 1.0));
     setKNN(OptionHelper.getInteger(PARAMETERS[5], options, 1));
     setNumPartitions(OptionHelper.getInteger(PARAMETERS[6], options, 1));
+    setNumIslands(OptionHelper.getInteger(PARAMETERS[7], options, 1));
+    setMigrationInterval(OptionHelper.getInteger(PARAMETERS[8], options, 2));
+    setNumMigrants(OptionHelper.getInteger(PARAMETERS[9], options, 2));
+    setSinglePrecision(weka.core.Utils.getFlag(SINGLE_PRECISION_FLAG, options));
     // parental option setting
     super.setOptions(options);
   }
@@ -257,6 +315,15 @@ public class CSCA extends AbstractClassifier {
     list.add(Integer.toString(kNN));
     list.add("-" + PARAMETERS[6]);
     list.add(Integer.toString(numPartitions));
+    list.add("-" + PARAMETERS[7]);
+    list.add(Integer.toString(numIslands));
+    list.add("-" + PARAMETERS[8]);
+    list.add(Integer.toString(migrationInterval));
+    list.add("-" + PARAMETERS[9]);
+    list.add(Integer.toString(numMigrants));
+    if (singlePrecision) {
+      list.add("-" + SINGLE_PRECISION_FLAG);
+    }
 
     return list.toArray(new String[0]);
   }
@@ -290,6 +357,18 @@ public class CSCA extends AbstractClassifier {
     return DESCRIPTIONS[6];
   }
 
+  public String numIslandsTipText() {
+    return DESCRIPTIONS[7];
+  }
+
+  public String migrationIntervalTipText() {
+    return DESCRIPTIONS[8];
+  }
+
+  public String numMigrantsTipText() {
+    return DESCRIPTIONS[9];
+  }
+
 
   public double getClonalScaleFactor() {
     return clonalScaleFactor;
@@ -347,6 +426,42 @@ public class CSCA extends AbstractClassifier {
     this.totalGenerations = totalGenerations;
   }
 
+  public int getNumIslands() {
+    return numIslands;
+  }
+
+  public void setNumIslands(int numIslands) {
+    this.numIslands = numIslands;
+  }
+
+  public int getMigrationInterval() {
+    return migrationInterval;
+  }
+
+  public void setMigrationInterval(int migrationInterval) {
+    this.migrationInterval = migrationInterval;
+  }
+
+  public int getNumMigrants() {
+    return numMigrants;
+  }
+
+  public void setNumMigrants(int numMigrants) {
+    this.numMigrants = numMigrants;
+  }
+
+  public String singlePrecisionTipText() {
+    return SINGLE_PRECISION_DESCRIPTION;
+  }
+
+  public boolean getSinglePrecision() {
+    return singlePrecision;
+  }
+
+  public void setSinglePrecision(boolean singlePrecision) {
+    this.singlePrecision = singlePrecision;
+  }
+
   public static void main(String[] args) {
    runClassifier(new CSCA(), args);
   }
@@ -16,15 +16,16 @@
 package weka.classifiers.immune.clonalg;
 
 import weka.classifiers.immune.affinity.AttributeDistance;
+import weka.classifiers.immune.affinity.NeighbourHeap;
 import weka.core.Instance;
 import weka.core.Instances;
 
 import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 
 /**
@@ -57,12 +58,17 @@ public class CSCAAlgorithm implements Serializable {
 
   protected boolean debug;
 
-  protected LinkedList<CSCAAntibody> memoryPool;
+  protected ArrayList<CSCAAntibody> memoryPool;
 
   protected Random rand;
 
   protected DistanceFunction affinityFunction;
 
+  protected boolean singlePrecision;
+
+  // single precision copy of the memory pool used for classification, or null
+  protected AntibodyMatrix singleMemoryPool;
+
   protected Instances[] partitions;
 
   protected int partitionIndex;
@@ -124,18 +130,50 @@ public class CSCAAlgorithm implements Serializable {
   }
 
   public double classify(Instance aInstance) {
-    // expose the system to the antigen
-    CSCAAntibody bmu = selectBestMatchingUnit(aInstance);
-
+    if (singleMemoryPool != null) {
+      return classifySinglePrecision(aInstance);
+    }
     if (kNN == 1) {
+      // expose the system to the antigen
+      CSCAAntibody bmu = selectBestMatchingUnit(aInstance);
       return bmu.getClassification();
     }
 
+    // the k best antibodies, ties to the earlier antibody as with a stable sort
+    NeighbourHeap heap = new NeighbourHeap(kNN);
+    selectKNearest(aInstance.toDoubleArray(), heap);
     int[] counts = new int[aInstance.classAttribute().numValues()];
     // accumumate counts of for k instances
-    for (int i = 0; i < kNN; i++) {
-      counts[(int) memoryPool.get(i).getClassification()]++;
+    for (int i = 0; i < heap.size(); i++) {
+      counts[(int) memoryPool.get(heap.getIndex(i)).getClassification()]++;
     }
+
+    return selectMajority(counts);
+  }
+
+
+  protected double classifySinglePrecision(Instance aInstance) {
+    double[] data = aInstance.toDoubleArray();
+    if (kNN == 1) {
+      return singleMemoryPool.getClassification(singleMemoryPool.selectBestMatch(data, affinityFunction));
+    }
+
+    // the k best antibodies, ties to the earlier antibody as with a stable sort
+    NeighbourHeap heap = new NeighbourHeap(kNN);
+    singleMemoryPool.nearest(data, affinityFunction, heap);
+    int[] counts = new int[aInstance.classAttribute().numValues()];
+    for (int i = 0; i < heap.size(); i++) {
+      counts[(int) singleMemoryPool.getClassification(heap.getIndex(i))]++;
+    }
+
+    return selectMajority(counts);
+  }
+
+  /**
+   * @param counts
+   * @return the class with the largest count, the first of equal counts
+   */
+  protected static int selectMajority(int[] counts) {
     // locate largest
     int bestCount = -1;
     int bestIndex = -1;
@@ -263,7 +301,7 @@ public class CSCAAlgorithm implements Serializable {
   protected void initialiseAntibodyPool(Instances aAntigens) {
     // randomise the dataset
     aAntigens.randomize(rand);
-    memoryPool = new LinkedList<CSCAAntibody>();
+    memoryPool = new ArrayList<CSCAAntibody>(initialPopulationSize);
     // select random antigens
     for (int i = 0; i < initialPopulationSize; i++) {
       CSCAAntibody antibody = new CSCAAntibody(aAntigens.instance(i));
@@ -309,62 +347,123 @@ public class CSCAAlgorithm implements Serializable {
 
   protected void train(Instances aInstances)
     throws Exception {
-    boolean stopCondition = false;
-
     // prepare the algorithm
     algorithmPreperation(aInstances);
     // train the system
-    for (int generation = 0; !stopCondition && generation < totalGenerations; generation++) {
-      // get a partition
-      Instances partition = getNextPartition();
-      // randomise the dataset
-      partition.randomize(rand);
-      // expose the system to the partition
-      for (int j = 0; j < partition.numInstances(); j++) {
-	// get a data instance
-	Instance current = partition.instance(j);
-	// locate the best match
-	CSCAAntibody bmu = selectBestMatchingUnit(current);
-	// accumuate class counts
-	bmu.updateClassCount(current);
-      }
-      // calculate fitness for the population
-      calculatePopulationFitness(generation);
-      // perform pruning
-      int totalPruned = performPruning();
-      // prepare the selection set
-      LinkedList<CSCAAntibody> selectedSet = prepareSelectedSet();
-      if (debug) {
-	// statistics
-	antibodiesWithoutErrorPerGeneration[generation] = (memoryPool.size() - selectedSet.size());
-	selectionSetSizePerGeneration[generation] = selectedSet.size();
-      }
-
-      // check for stop condition
-      if (selectedSet.isEmpty()) {
-	stopCondition = true;
-      }
-      else {
-	// clear accumulated history
-	clearAccumulatedHistory();
-	// perform cloning and mutation
-	performCloningAndMutation(selectedSet, partition, generation);
-	// insert random instances
-	insertRandomAntigens(partition, selectedSet.size(), generation);
+    for (int generation = 0; generation < totalGenerations; generation++) {
+      if (trainGeneration(aInstances, generation)) {
+	break;
       }
+    }
+    completeTraining();
+  }
 
+  /**
+   * Exposes the population to the next partition, then prunes, clones and
+   * inserts antibodies
+   *
+   * @param aInstances all training instances, for statistics
+   * @param generation
+   * @return true when no antibody misclassified, and training should stop
+   */
+  protected boolean trainGeneration(Instances aInstances, int generation) {
+    // get a partition
+    Instances partition = getNextPartition();
+    // randomise the dataset
+    partition.randomize(rand);
+    // expose the system to the partition
+    for (int j = 0; j < partition.numInstances(); j++) {
+      // get a data instance
+      Instance current = partition.instance(j);
+      // locate the best match
+      CSCAAntibody bmu = selectBestMatchingUnit(current);
+      // accumuate class counts
+      bmu.updateClassCount(current);
+    }
+    // calculate fitness for the population
+    calculatePopulationFitness(generation);
+    // perform pruning
+    int totalPruned = performPruning();
+    // prepare the selection set
+    List<CSCAAntibody> selectedSet = prepareSelectedSet();
+    if (debug) {
       // statistics
-      if (debug) {
-	antibodiesPrunedPerGeneration[generation] = totalPruned;
-	populationSizePerGeneration[generation] = memoryPool.size();
-	trainingClassificationAccuracyPerGeneration[generation] = classificationAccuracy(aInstances);
-	generationsCompleted++;
-      }
+      antibodiesWithoutErrorPerGeneration[generation] = (memoryPool.size() - selectedSet.size());
+      selectionSetSizePerGeneration[generation] = selectedSet.size();
+    }
+
+    // check for stop condition
+    boolean stopCondition = false;
+    if (selectedSet.isEmpty()) {
+      stopCondition = true;
     }
+    else {
+      // clear accumulated history
+      clearAccumulatedHistory();
+      // perform cloning and mutation
+      performCloningAndMutation(selectedSet, partition, generation);
+      // insert random instances
+      insertRandomAntigens(partition, selectedSet.size(), generation);
+    }
+
+    // statistics
+    if (debug) {
+      antibodiesPrunedPerGeneration[generation] = totalPruned;
+      populationSizePerGeneration[generation] = memoryPool.size();
+      trainingClassificationAccuracyPerGeneration[generation] = classificationAccuracy(aInstances);
+      generationsCompleted++;
+    }
+
+    return stopCondition;
+  }
+
+  protected void completeTraining() {
     // perform final pruning
     performFinalPruning();
     //adjust kNN as needed
     kNN = Math.min(kNN, memoryPool.size());
+    singleMemoryPool = singlePrecision ? new AntibodyMatrix(memoryPool) : null;
+  }
+
+  /**
+   * @param aCount
+   * @return copies of the fittest antibodies, equal fitness to the earlier
+   * antibody in the pool, for another population to take in
+   */
+  protected CSCAAntibody[] selectEmigrants(int aCount) {
+    int count = Math.min(aCount, memoryPool.size());
+    if (count <= 0) {
+      return new CSCAAntibody[0];
+    }
+    NeighbourHeap heap = new NeighbourHeap(count);
+    for (int i = 0; i < memoryPool.size(); i++) {
+      heap.offer(i, -memoryPool.get(i).getFitness());
+    }
+
+    int[] selected = heap.sortedIndices();
+    CSCAAntibody[] emigrants = new CSCAAntibody[count];
+    for (int i = 0; i < count; i++) {
+      emigrants[i] = new CSCAAntibody(memoryPool.get(selected[i]));
+    }
+    return emigrants;
+  }
+
+  /**
+   * Adds the immigrants to the population, pruning removes those that do not
+   * earn their place
+   *
+   * @param aImmigrants
+   */
+  protected void immigrate(CSCAAntibody[] aImmigrants) {
+    memoryPool.addAll(Arrays.asList(aImmigrants));
+  }
+
+  /**
+   * @param a whether classification uses a single precision copy of the
+   *          memory pool, must be set before training
+   */
+  public void setSinglePrecision(boolean a) {
+    singlePrecision = a;
   }
 
   protected void performFinalPruning() {
@@ -419,7 +518,7 @@ public class CSCAAlgorithm implements Serializable {
 
 
   protected void performCloningAndMutation(
-    LinkedList<CSCAAntibody> selectedSet,
+    List<CSCAAntibody> selectedSet,
     Instances aPartition,
     int generation) {
     // determine sum fitness
@@ -447,16 +546,12 @@ public class CSCAAlgorithm implements Serializable {
     }
   }
 
-  protected LinkedList<CSCAAntibody> prepareSelectedSet() {
-    LinkedList<CSCAAntibody> selectedSet = new LinkedList<CSCAAntibody>();
-    // add all instance
-    selectedSet.addAll(memoryPool);
-    // remove all instances without any miss classifications
-    for (Iterator<CSCAAntibody> iter = selectedSet.iterator(); iter.hasNext(); ) {
-      CSCAAntibody a = iter.next();
-      if (!a.hasMisClassified()) {
-	// remove from selected set
-	iter.remove();
+  protected List<CSCAAntibody> prepareSelectedSet() {
+    List<CSCAAntibody> selectedSet = new ArrayList<CSCAAntibody>();
+    // add all instances with miss classifications
+    for (CSCAAntibody a : memoryPool) {
+      if (a.hasMisClassified()) {
+	selectedSet.add(a);
       }
     }
 
@@ -464,16 +559,23 @@ public class CSCAAlgorithm implements Serializable {
   }
 
 
+  /**
+   * Removes the antibodies at or below the minimum fitness in one pass,
+   * keeping the order of the survivors
+   *
+   * @return the number of antibodies removed
+   */
   protected int performPruning() {
-    int count = 0;
+    int kept = 0;
 
-    for (Iterator<CSCAAntibody> iter = memoryPool.iterator(); iter.hasNext(); ) {
-      CSCAAntibody a = iter.next();
-      if (a.getFitness() <= eta) {
-	iter.remove();
-	count++;
+    for (int i = 0; i < memoryPool.size(); i++) {
+      CSCAAntibody a = memoryPool.get(i);
+      if (a.getFitness() > eta) {
+	memoryPool.set(kept++, a);
       }
     }
+    int count = memoryPool.size() - kept;
+    memoryPool.subList(kept, memoryPool.size()).clear();
 
     return count;
   }
@@ -503,25 +605,52 @@ public class CSCAAlgorithm implements Serializable {
     }
   }
 
+  /**
+   * Scans for the antibody with the best affinity, abandoning the distance
+   * of an antibody once it cannot beat the best so far. Equal affinities go to
+   * the first antibody in the pool. The pool and the affinities of its
+   * antibodies are left untouched.
+   *
+   * @param aInstance
+   * @return
+   */
   protected CSCAAntibody selectBestMatchingUnit(Instance aInstance) {
+    double[] data = aInstance.toDoubleArray();
     CSCAAntibody bmu = null;
-    // calculate affinity for population
-    calculateAffinity(memoryPool, aInstance);
-    // sort by ascending numeric order - best affinity at zero
-    Collections.sort(memoryPool);
-    // retrieve bmu
-    bmu = memoryPool.getFirst();
+    double bestDistance = Double.POSITIVE_INFINITY;
+    double bound = Double.POSITIVE_INFINITY;
+
+    for (CSCAAntibody a : memoryPool) {
+      double sum = affinityFunction.distanceSquaredBounded(a.getAttributes(), data, bound);
+      if (sum <= bound) {
+	double distance = Math.sqrt(sum);
+	if (bmu == null || distance < bestDistance) {
+	  bmu = a;
+	  bestDistance = distance;
+	  bound = affinityFunction.squaredBound(distance);
+	}
+      }
+    }
+
     return bmu;
   }
 
-  protected void calculateAffinity(
-    LinkedList<CSCAAntibody> antibodies,
-    Instance aInstance) {
-    double[] data = aInstance.toDoubleArray();
-
-    for (CSCAAntibody a : antibodies) {
-      double affinity = affinityFunction.calculateDistance(a.getAttributes(), data);
-      a.setAffinity(affinity);
+  /**
+   * Offers every antibody that may be among the heap's nearest to the heap
+   * in O(N log k), abandoning distances that cannot make the heap. Equal
+   * affinities go to the earlier antibody. The pool and the affinities of
+   * its antibodies are left untouched.
+   *
+   * @param aData
+   * @param aHeap receives the positions of the antibodies in the pool
+   */
+  protected void selectKNearest(double[] aData, NeighbourHeap aHeap) {
+    double bound = affinityFunction.squaredBound(aHeap.worstDistance());
+    for (int i = 0; i < memoryPool.size(); i++) {
+      double sum = affinityFunction.distanceSquaredBounded(memoryPool.get(i).getAttributes(), aData, bound);
+      if (sum <= bound && aHeap.offer(i, Math.sqrt(sum))) {
+	bound = affinityFunction.squaredBound(aHeap.worstDistance());
+      }
     }
   }
 
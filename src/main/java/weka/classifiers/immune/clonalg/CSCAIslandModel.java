@@ -0,0 +1,190 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Created on 17/10/2026
+ *
+ */
+package weka.classifiers.immune.clonalg;
+
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Type: CSCAIslandModel<br>
+ * Date: 17/10/2026<br>
+ * <br>
+ * <p>
+ * Description: Trains several independent CSCA populations (islands)
+ * concurrently, each with its own seed derived from the user seed and its
+ * own copy of the antigens. Every migration interval each island sends
+ * copies of its fittest antibodies to the next island in a ring. An island
+ * that meets the stop condition stops training and migrating. Each island
+ * is pruned against its antigens, then the populations are merged into the
+ * classifier.
+ *
+ * @author Jason Brownlee
+ */
+public class CSCAIslandModel extends CSCAAlgorithm {
+
+  protected final int numIslands;
+
+  protected final int migrationInterval; // generations between migrations
+
+  protected final int numMigrants;
+
+  protected int numMigrations;
+
+  protected int[] islandGenerations;
+
+
+  public CSCAIslandModel(
+    int aInitialPopulationSize,
+    int aTotalGenerations,
+    long aSeed,
+    double aAlpha,
+    double aEta,
+    int aKNN,
+    int aNumPartitions,
+    boolean aDebug,
+    int aNumIslands,
+    int aMigrationInterval,
+    int aNumMigrants
+  ) {
+    super(aInitialPopulationSize, aTotalGenerations, aSeed, aAlpha, aEta, aKNN, aNumPartitions, aDebug);
+    numIslands = aNumIslands;
+    migrationInterval = aMigrationInterval;
+    numMigrants = aNumMigrants;
+  }
+
+
+  protected void train(Instances aInstances)
+    throws Exception {
+    final CSCAAlgorithm[] islands = new CSCAAlgorithm[numIslands];
+    final Instances[] antigens = new Instances[numIslands];
+    final boolean[] stopped = new boolean[numIslands];
+    final int[] generations = new int[numIslands];
+    SplittableRandom streams = new SplittableRandom(seed);
+    for (int i = 0; i < numIslands; i++) {
+      islands[i] = new CSCAAlgorithm(
+	initialPopulationSize,
+	totalGenerations,
+	streams.split().nextLong(),
+	alpha,
+	eta,
+	kNN,
+	numPartitions,
+	debug);
+      // each island shuffles its own antigens
+      antigens[i] = new Instances(aInstances);
+    }
+
+    numMigrations = 0;
+    ExecutorService pool = CLONALGAlgorithm.createExecutor(numIslands);
+    try {
+      CSCAAntibody[][] emigrants = new CSCAAntibody[numIslands][];
+      for (int generation = 0; generation < totalGenerations; generation += migrationInterval) {
+	final int start = generation;
+	final int end = Math.min(generation + migrationInterval, totalGenerations);
+	final boolean migrate = (numMigrants > 0 && end < totalGenerations);
+	final CSCAAntibody[][] arriving = emigrants;
+	final CSCAAntibody[][] leaving = new CSCAAntibody[numIslands][];
+
+	List<Future<Object>> tasks = new ArrayList<Future<Object>>(numIslands);
+	for (int i = 0; i < numIslands; i++) {
+	  final int island = i;
+	  tasks.add(pool.submit(new Callable<Object>() {
+	    public Object call() {
+	      if (start == 0) {
+		islands[island].algorithmPreperation(antigens[island]);
+	      }
+	      if (stopped[island]) {
+		return null;
+	      }
+	      // immigrants come from the previous island in the ring
+	      CSCAAntibody[] immigrants = arriving[(island + numIslands - 1) % numIslands];
+	      if (immigrants != null) {
+		islands[island].immigrate(immigrants);
+	      }
+	      for (int j = start; j < end && !stopped[island]; j++) {
+		stopped[island] = islands[island].trainGeneration(antigens[island], j);
+		generations[island]++;
+	      }
+	      if (migrate && !stopped[island]) {
+		leaving[island] = islands[island].selectEmigrants(numMigrants);
+	      }
+	      return null;
+	    }
+	  }));
+	}
+	CLONALGIslandModel.await(tasks);
+
+	if (migrate) {
+	  numMigrations++;
+	}
+	emigrants = leaving;
+      }
+
+      // prune each island against its own antigens
+      List<Future<Object>> tasks = new ArrayList<Future<Object>>(numIslands);
+      for (int i = 0; i < numIslands; i++) {
+	final int island = i;
+	tasks.add(pool.submit(new Callable<Object>() {
+	  public Object call() {
+	    islands[island].completeTraining();
+	    return null;
+	  }
+	}));
+      }
+      CLONALGIslandModel.await(tasks);
+    }
+    finally {
+      pool.shutdownNow();
+    }
+
+    // merge the populations, the islands share the same attribute ranges
+    memoryPool = new ArrayList<CSCAAntibody>();
+    for (int i = 0; i < numIslands; i++) {
+      memoryPool.addAll(islands[i].memoryPool);
+    }
+    affinityFunction = islands[0].affinityFunction;
+    islandGenerations = generations;
+    kNN = Math.min(kNN, memoryPool.size());
+    singleMemoryPool = singlePrecision ? new AntibodyMatrix(memoryPool) : null;
+  }
+
+  protected String getTrainingSummary(Instances aInstances) {
+    StringBuilder b = new StringBuilder();
+
+    b.append(" - Island Model - \n");
+    b.append("Islands:....................." + numIslands + "\n");
+    b.append("Migrations:.................." + numMigrations + "\n");
+    for (int i = 0; i < islandGenerations.length; i++) {
+      b.append("Island " + (i + 1) + " generations:........" + islandGenerations[i] + "\n");
+    }
+
+    b.append("\n");
+    b.append(" - Classifier Summary - \n");
+    b.append(getModelSummary(aInstances) + "\n");
+
+    return b.toString();
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Created on 17/10/2026
+ *
+ */
+package weka.classifiers.immune.clonalg;
+
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Type: ConcurrentClassificationBenchmark<br>
+ * File: ConcurrentClassificationBenchmark.java<br>
+ * Date: 17/10/2026<br>
+ * <br>
+ * Description: Trains CLONALG and CSCA, classifies a test set on the calling
+ * thread, then classifies it again from several threads sharing the one
+ * trained model. Reports the predictions that differ from those of the calling
+ * thread, which should be none, and the time taken.
+ * <br>
+ * Usage: ConcurrentClassificationBenchmark [numThreads] [antibodyPoolSize]
+ * <br>
+ *
+ * @author Jason Brownlee
+ */
+public class ConcurrentClassificationBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int numThreads = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+    int antibodyPoolSize = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+    int repeats = 5;
+    Random rand = new Random(1);
+
+    Instances train = CLONALGSelectionBenchmark.generate(1000, 8, rand);
+    Instances test = CLONALGSelectionBenchmark.generate(5000, 8, rand);
+
+    CLONALG clonalg = new CLONALG();
+    clonalg.setAntibodyPoolSize(antibodyPoolSize);
+    clonalg.setClonalFactor(10.0 / antibodyPoolSize);
+    CSCA csca = new CSCA();
+    csca.setDebug(false);
+    csca.setKNN(3);
+    Classifier[] classifiers = {clonalg, csca};
+
+    System.out.println("Threads: " + numThreads + ", test instances: " + test.numInstances());
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      for (int c = 0; c < classifiers.length; c++) {
+	Classifier classifier = classifiers[c];
+	classifier.buildClassifier(train);
+	String name = classifier.getClass().getSimpleName();
+
+	long start = System.nanoTime();
+	double[] expected = new double[test.numInstances()];
+	for (int r = 0; r < repeats; r++) {
+	  for (int i = 0; i < expected.length; i++) {
+	    expected[i] = classifier.classifyInstance(test.instance(i));
+	  }
+	}
+	System.out.println(name + " calling thread: " + ((System.nanoTime() - start) / 1000000) + "ms");
+
+	start = System.nanoTime();
+	List<Future<Integer>> tasks = new ArrayList<Future<Integer>>();
+	for (int t = 0; t < numThreads; t++) {
+	  tasks.add(executor.submit(classify(classifier, test, expected, t, numThreads, repeats)));
+	}
+	int mismatches = 0;
+	for (Future<Integer> task : tasks) {
+	  mismatches += task.get();
+	}
+	System.out.println(name + " " + numThreads + " threads: " + ((System.nanoTime() - start) / 1000000) + "ms, mismatches: " + mismatches);
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Classifies every aStride-th test instance from aFirst, aRepeats times
+   *
+   * @return the predictions that differ from the expected predictions
+   */
+  protected static Callable<Integer> classify(
+    final Classifier aClassifier,
+    final Instances aTest,
+    final double[] aExpected,
+    final int aFirst,
+    final int aStride,
+    final int aRepeats) {
+    return new Callable<Integer>() {
+      public Integer call() throws Exception {
+	int mismatches = 0;
+	for (int r = 0; r < aRepeats; r++) {
+	  for (int i = aFirst; i < aExpected.length; i += aStride) {
+	    if (aClassifier.classifyInstance(aTest.instance(i)) != aExpected[i]) {
+	      mismatches++;
+	    }
+	  }
+	}
+	return mismatches;
+      }
+    };
+  }
+}
@@ -23,6 +23,7 @@ import weka.classifiers.immune.affinity.AttributeDistance;
 import weka.classifiers.immune.affinity.ClassAttributeDistance;
 import weka.classifiers.immune.affinity.NominalAttributeDistance;
 import weka.classifiers.immune.affinity.NumericAttributeDistance;
+import weka.classifiers.immune.affinity.NumericDistanceKernel;
 import weka.classifiers.immune.affinity.UnsupportedAttributeDistance;
 import weka.core.Attribute;
 import weka.core.Instances;
@@ -40,6 +41,8 @@ import java.io.Serializable;
  */
 public class DistanceFunction implements Serializable {
 
+  protected final static double BOUND_SLACK = 1.0 + 1e-9;
+
   protected final AttributeDistance[] distanceMeasures;
 
   protected final int classIndex;
@@ -48,6 +51,9 @@ public class DistanceFunction implements Serializable {
 
   protected final double[][] minmax;
 
+  // specialised path for all numeric data, null for the generic path
+  protected final NumericDistanceKernel numericKernel;
+
 
   public DistanceFunction(Instances aInstances) {
     int numAttributes = aInstances.numAttributes();
@@ -74,6 +80,7 @@ public class DistanceFunction implements Serializable {
     }
 
     maxDistance = Math.sqrt(sum);
+    numericKernel = NumericDistanceKernel.create(distanceMeasures, aInstances);
   }
 
   protected double[][] calculateMinMax(Instances aInstances) {
@@ -144,9 +151,81 @@ public class DistanceFunction implements Serializable {
   }
 
   protected double calculateDistance(double[] i1, double[] i2) {
+    double sum = distanceSquaredBounded(i1, i2, Double.POSITIVE_INFINITY);
+    // square root
+    double distance = Math.sqrt(sum);
+    return distance;
+  }
+
+  /**
+   * Squared unnormalised distance that stops summing once the partial sum
+   * exceeds the bound, for searches that only need the best match
+   *
+   * @param i1
+   * @param i2
+   * @param aBound see squaredBound()
+   * @return the squared distance, or a partial sum greater than the bound
+   */
+  public double distanceSquaredBounded(double[] i1, double[] i2, double aBound) {
+    double sum = Double.NaN;
+    if (numericKernel != null) {
+      sum = numericKernel.sumSquares(i1, i2, 0, null, aBound);
+    }
+    // generic path, also taken when the kernel meets a missing value
+    if (Double.isNaN(sum)) {
+      sum = sumSquares(i1, i2, aBound);
+    }
+    return sum;
+  }
+
+  /**
+   * As above for an antibody stored as a row of a matrix held in single
+   * precision, see AntibodyMatrix. The sum is taken in double precision.
+   *
+   * @param aMatrix
+   * @param aOffset first element of the antibody in the matrix
+   * @param i2
+   * @param aBound  see squaredBound()
+   * @return the squared distance, or a partial sum greater than the bound
+   */
+  public double distanceSquaredBounded(float[] aMatrix, int aOffset, double[] i2, double aBound) {
+    double sum = Double.NaN;
+    if (numericKernel != null) {
+      sum = numericKernel.sumSquares(i2, aMatrix, aOffset, null, aBound);
+    }
+    // generic path, also taken when the kernel meets a missing value
+    if (Double.isNaN(sum)) {
+      sum = 0.0;
+      for (int i = 0; i < distanceMeasures.length && sum <= aBound; i++) {
+	double v1 = aMatrix[aOffset + i];
+	if (weka.core.Utils.isMissingValue(v1) ||
+	  weka.core.Utils.isMissingValue(i2[i])) {
+	  continue;
+	}
+
+	sum += distanceMeasures[i].distance(v1, i2[i]);
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * @param aDistance the worst unnormalised distance of interest
+   * @return the bound on the squared distance, widened slightly so that
+   * rounding never abandons a vector at exactly the given distance
+   */
+  public double squaredBound(double aDistance) {
+    double bound = aDistance * aDistance * BOUND_SLACK;
+    if (!(bound < Double.POSITIVE_INFINITY)) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return bound;
+  }
+
+  protected double sumSquares(double[] i1, double[] i2, double aBound) {
     // sum the squares
     double sum = 0.0;
-    for (int i = 0; i < distanceMeasures.length; i++) {
+    for (int i = 0; i < distanceMeasures.length && sum <= aBound; i++) {
       // check for empty value
       if (weka.core.Utils.isMissingValue(i1[i]) ||
 	weka.core.Utils.isMissingValue(i2[i])) {
@@ -156,9 +235,7 @@ public class DistanceFunction implements Serializable {
 
       sum += distanceMeasures[i].distance(i1[i], i2[i]);
     }
-    // square root
-    double distance = Math.sqrt(sum);
-    return distance;
+    return sum;
   }
 
   protected double normaliseDistance(double aDistance) {
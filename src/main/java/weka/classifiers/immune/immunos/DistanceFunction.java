@@ -23,6 +23,7 @@ import weka.classifiers.immune.affinity.AttributeDistance;
 import weka.classifiers.immune.affinity.ClassAttributeDistance;
 import weka.classifiers.immune.affinity.NominalAttributeDistance;
 import weka.classifiers.immune.affinity.NumericAttributeDistance;
+import weka.classifiers.immune.affinity.NumericDistanceKernel;
 import weka.classifiers.immune.affinity.UnsupportedAttributeDistance;
 import weka.core.Attribute;
 import weka.core.Instances;
@@ -49,6 +50,9 @@ public class DistanceFunction implements Serializable {
 
   protected final double[][] minmax;
 
+  // specialised path for all numeric data, null for the generic path
+  protected final NumericDistanceKernel numericKernel;
+
 
   public DistanceFunction(Instances aInstances) {
     int numAttributes = aInstances.numAttributes();
@@ -75,6 +79,7 @@ public class DistanceFunction implements Serializable {
     }
 
     maxDistance = Math.sqrt(sum);
+    numericKernel = NumericDistanceKernel.create(distanceMeasures, aInstances);
   }
 
   protected double[][] calculateMinMax(Instances aInstances) {
@@ -145,6 +150,20 @@ public class DistanceFunction implements Serializable {
   }
 
   protected double calculateDistance(double[] i1, double[] i2) {
+    double sum = Double.NaN;
+    if (numericKernel != null) {
+      sum = numericKernel.sumSquares(i1, i2, 0);
+    }
+    // generic path, also taken when the kernel meets a missing value
+    if (Double.isNaN(sum)) {
+      sum = sumSquares(i1, i2);
+    }
+    // square root
+    double distance = Math.sqrt(sum);
+    return distance;
+  }
+
+  protected double sumSquares(double[] i1, double[] i2) {
     // sum the squares
     double sum = 0.0;
     for (int i = 0; i < distanceMeasures.length; i++) {
@@ -157,9 +176,7 @@ public class DistanceFunction implements Serializable {
 
       sum += distanceMeasures[i].distance(i1[i], i2[i]);
     }
-    // square root
-    double distance = Math.sqrt(sum);
-    return distance;
+    return sum;
   }
 
   protected double normaliseDistance(double aDistance) {